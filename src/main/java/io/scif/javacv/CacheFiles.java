@@ -0,0 +1,202 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helpers shared by the on-disk caches.
+ */
+final class CacheFiles {
+
+	/** Entries unused for longer than this many milliseconds are deleted. */
+	static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+	/** The estimated total size of each cache directory written to. */
+	private static final Map<File, Long> sizes = new HashMap<File, Long>();
+
+	/**
+	 * Writes the contents of a cache file.
+	 */
+	interface Writer {
+
+		void write(File file) throws IOException;
+	}
+
+	private CacheFiles() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Writes a file next to its destination and moves it into place, so that
+	 * concurrent readers never see a partial file.
+	 *
+	 * @param file the destination; its directory is created if necessary
+	 * @param writer writes the contents
+	 * @throws IOException if the file could not be written
+	 */
+	public static void writeAtomically(final File file, final Writer writer)
+		throws IOException
+	{
+		final File directory = file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		final File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			writer.write(tmp);
+			try {
+				Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			if (tmp.exists()) tmp.delete();
+		}
+	}
+
+	/**
+	 * Marks a cache file as used, so that it is evicted last.
+	 *
+	 * @param file the cache file that was just read
+	 */
+	public static void touch(final File file) {
+		file.setLastModified(System.currentTimeMillis());
+	}
+
+	/**
+	 * Accounts for a file just written to a cache directory, and deletes the
+	 * least recently used files once the directory grows beyond the bound. The
+	 * first call per directory and process also deletes the files unused for
+	 * longer than {@link #MAX_AGE}, e.g. those of deleted movies.
+	 *
+	 * @param directory the cache directory
+	 * @param suffix the suffix of the cache files
+	 * @param file the file just written
+	 * @param maxSize the maximal total size of the cache files, in bytes
+	 */
+	public static void bound(final File directory, final String suffix,
+		final File file, final long maxSize)
+	{
+		synchronized (sizes) {
+			final Long size = sizes.get(directory);
+			if (size != null && size + file.length() <= maxSize) {
+				sizes.put(directory, size + file.length());
+				return;
+			}
+			final long maxAge = size == null ? MAX_AGE : Long.MAX_VALUE;
+			sizes.put(directory, prune(directory, suffix, maxSize, maxAge));
+		}
+	}
+
+	/**
+	 * Deletes expired files, then the least recently used ones until the rest
+	 * fits into the given size.
+	 *
+	 * @return the total size of the remaining files
+	 */
+	private static long prune(final File directory, final String suffix,
+		final long maxSize, final long maxAge)
+	{
+		final File[] files = directory.listFiles();
+		if (files == null) return 0;
+		final long[] lastModified = new long[files.length];
+		final Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			lastModified[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		// most recently used first
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return Long.compare(lastModified[b], lastModified[a]);
+			}
+		});
+		final long now = System.currentTimeMillis();
+		long kept = 0;
+		for (final int i : order) {
+			final File file = files[i];
+			if (!file.getName().endsWith(suffix)) continue;
+			final long length = file.length();
+			if (now - lastModified[i] <= maxAge && kept + length <= maxSize) {
+				kept += length;
+			} else if (!file.delete()) {
+				kept += length;
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * @return a new SHA-1 digest
+	 */
+	public static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param bytes e.g. a digest
+	 * @param length the number of bytes to encode
+	 * @return the first {@code length} bytes in lower-case hexadecimal
+	 */
+	public static String toHex(final byte[] bytes, final int length) {
+		final StringBuilder builder = new StringBuilder(2 * length);
+		for (int i = 0; i < length; i++) {
+			builder.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+			builder.append(Character.forDigit(bytes[i] & 0xf, 16));
+		}
+		return builder.toString();
+	}
+
+}
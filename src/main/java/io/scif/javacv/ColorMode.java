@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_GRAY16LE;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_GRAY8;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_RGB24;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_RGB48LE;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV444P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV444P16LE;
+
+/**
+ * The pixel layout the {@link MovieFormat.Reader} delivers decoded frames in.
+ */
+public enum ColorMode {
+
+	/** Interleaved 8-bit red, green and blue channels. */
+	RGB(AV_PIX_FMT_RGB24, 1, 3, false),
+
+	/**
+	 * A single 8-bit luma channel. For the usual YUV movies, this is the Y plane
+	 * as decoded; the chroma planes are dropped instead of being converted.
+	 */
+	GRAY(AV_PIX_FMT_GRAY8, 1, 1, false),
+
+	/**
+	 * The decoder's Y, U and V planes as separate 8-bit channels, one plane
+	 * after the other, without any colorspace conversion. Subsampled chroma
+	 * planes are scaled up to the full frame size, since all channels of a
+	 * plane share its geometry; the native subsampling is recorded in
+	 * {@link MovieFormat.Metadata#getChromaShiftX()} and
+	 * {@link MovieFormat.Metadata#getChromaShiftY()}. Sources without YUV
+	 * planes are read in another mode instead; see {@link #forSource(String)}.
+	 */
+	YUV(AV_PIX_FMT_YUV444P, 1, 3, true),
+
+	/** Like {@link #RGB}, with 16-bit little-endian samples. */
+	RGB16(AV_PIX_FMT_RGB48LE, 2, 3, false),
+
+	/** Like {@link #GRAY}, with 16-bit little-endian samples. */
+	GRAY16(AV_PIX_FMT_GRAY16LE, 2, 1, false),
+
+	/** Like {@link #YUV}, with 16-bit little-endian samples. */
+	YUV16(AV_PIX_FMT_YUV444P16LE, 2, 3, true);
+
+	/** The name prefixes of FFmpeg's YUV pixel formats. */
+	private static final String[] YUV_PREFIXES = { "yu", "yv", "uy", "nv",
+		"ayuv", "vuy", "vyu", "xv", "p0", "p2", "p4", "y2", "y4" };
+
+	private final int pixelFormat;
+	private final int bytesPerSample;
+	private final int channelCount;
+	private final boolean planar;
+
+	private ColorMode(final int pixelFormat, final int bytesPerSample,
+		final int channelCount, final boolean planar)
+	{
+		this.pixelFormat = pixelFormat;
+		this.bytesPerSample = bytesPerSample;
+		this.channelCount = channelCount;
+		this.planar = planar;
+	}
+
+	/**
+	 * @return the FFmpeg pixel format the grabber converts frames to
+	 */
+	int getPixelFormat() {
+		return pixelFormat;
+	}
+
+	/**
+	 * @return 1 for 8-bit samples, 2 for 16-bit ones
+	 */
+	public int getBytesPerSample() {
+		return bytesPerSample;
+	}
+
+	/**
+	 * @return the number of channels of each pixel
+	 */
+	public int getChannelCount() {
+		return channelCount;
+	}
+
+	/**
+	 * @return whether the channels are stored one plane after the other rather
+	 *         than interleaved
+	 */
+	public boolean isPlanar() {
+		return planar;
+	}
+
+	/**
+	 * Picks the variant of this mode that keeps the given precision. Sources
+	 * with more than 8 bits per sample are decoded to 16 bits, scaled to the
+	 * full 16-bit range.
+	 *
+	 * @param bitDepth the bits per sample of the source
+	 * @return the 8-bit or 16-bit variant of this mode
+	 */
+	public ColorMode forBitDepth(final int bitDepth) {
+		final boolean deep = bitDepth > 8;
+		switch (this) {
+			case RGB:
+			case RGB16:
+				return deep ? RGB16 : RGB;
+			case GRAY:
+			case GRAY16:
+				return deep ? GRAY16 : GRAY;
+			default:
+				return deep ? YUV16 : YUV;
+		}
+	}
+
+	/**
+	 * Picks a mode the source can deliver without inventing data. The YUV modes
+	 * only pass the decoder's planes through; for sources such as
+	 * {@code rgb24}, {@code gray} or {@code pal8}, they would convert to YUV
+	 * instead, so gray sources fall back to {@link #GRAY} and all others to
+	 * {@link #RGB}.
+	 *
+	 * @param pixelFormat the name of the source's pixel format, or null if
+	 *          unknown
+	 * @return this mode, or the 8-bit mode to use instead; see
+	 *         {@link #forBitDepth(int)} for the precision
+	 */
+	public ColorMode forSource(final String pixelFormat) {
+		if (!planar || pixelFormat == null || isYUV(pixelFormat)) return this;
+		return pixelFormat.startsWith("gray") || pixelFormat.startsWith("ya") ? GRAY
+			: RGB;
+	}
+
+	/**
+	 * @param pixelFormat the name of an FFmpeg pixel format
+	 * @return whether the format stores luma and chroma, e.g. {@code yuv420p},
+	 *         {@code yuvj422p}, {@code nv12} or {@code uyvy422}
+	 */
+	public static boolean isYUV(final String pixelFormat) {
+		for (final String prefix : YUV_PREFIXES) {
+			if (pixelFormat.startsWith(prefix)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Determines the precision to decode a source with. The widest component
+	 * counts, so packed formats such as RGB565 stay at 8 bits.
+	 *
+	 * @param componentDepths the bits of each component of the source's pixel
+	 *          format
+	 * @return the significant bits per sample, between 8 and 16
+	 */
+	public static int getBitDepth(final int... componentDepths) {
+		int bits = 8;
+		for (final int depth : componentDepths) {
+			bits = Math.max(bits, depth);
+		}
+		return Math.min(bits, 16);
+	}
+
+	/**
+	 * Interprets a configuration value.
+	 *
+	 * @param value a {@link ColorMode}, its name, or null
+	 * @param defaultMode the mode to return if {@code value} is null
+	 * @return the color mode
+	 * @throws IllegalArgumentException if the value names no color mode
+	 */
+	public static ColorMode valueOf(final Object value,
+		final ColorMode defaultMode)
+	{
+		if (value == null) return defaultMode;
+		if (value instanceof ColorMode) return (ColorMode) value;
+		return valueOf(value.toString().toUpperCase());
+	}
+
+}
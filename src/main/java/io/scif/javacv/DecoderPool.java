@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bytedeco.javacv.FrameGrabber;
+
+/**
+ * A pool of {@link MovieDecoder}s for the same movie, so that several threads
+ * can decode frames at the same time.
+ *
+ * Each request is served by the idle decoder that needs to decode the fewest
+ * frames to get to the requested one, typically the one positioned closest
+ * before it. New decoders are only opened when all existing ones are busy.
+ */
+class DecoderPool {
+
+	private final String path;
+	private final MovieIndex index;
+	private final ColorMode mode;
+	private final int width, height;
+	private final List<MovieDecoder> idle = new ArrayList<MovieDecoder>();
+	private int maxSize;
+	private int size;
+	private boolean closed;
+
+	/**
+	 * @param path the movie file
+	 * @param index the index of the movie
+	 * @param mode the pixel layout of the decoded frames
+	 * @param width the width of the decoded frames, or 0 for the original width
+	 * @param height the height of the decoded frames, or 0 for the original
+	 *          height
+	 * @param maxSize the maximal number of decoders to open
+	 */
+	public DecoderPool(final String path, final MovieIndex index,
+		final ColorMode mode, final int width, final int height,
+		final int maxSize)
+	{
+		this.path = path;
+		this.index = index;
+		this.mode = mode;
+		this.width = width;
+		this.height = height;
+		this.maxSize = maxSize;
+	}
+
+	public MovieIndex getIndex() {
+		return index;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public ColorMode getColorMode() {
+		return mode;
+	}
+
+	public synchronized void setMaxSize(final int maxSize) {
+		this.maxSize = maxSize;
+		notifyAll();
+	}
+
+	/**
+	 * Takes the decoder that is cheapest to position at the given frame out of
+	 * the pool, waiting if all decoders are busy and no new one may be opened.
+	 *
+	 * @param frame the frame number
+	 * @return the decoder; it must be handed back via {@link #release}
+	 */
+	public MovieDecoder acquire(final int frame) throws FrameGrabber.Exception,
+		InterruptedIOException
+	{
+		synchronized (this) {
+			while (true) {
+				if (closed) throw new FrameGrabber.Exception("Closed: " + path);
+				MovieDecoder best = null;
+				for (int i = 0; i < idle.size(); i++) {
+					final MovieDecoder decoder = idle.get(i);
+					if (best == null || decoder.getCost(frame) < best.getCost(frame)) {
+						best = decoder;
+					}
+				}
+				if (best != null) {
+					idle.remove(best);
+					return best;
+				}
+				if (size < maxSize) {
+					size++;
+					break;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("Interrupted while waiting for a decoder");
+				}
+			}
+		}
+		try {
+			return MovieDecoder.open(path, index, mode, width, height);
+		} catch (FrameGrabber.Exception e) {
+			synchronized (this) {
+				size--;
+				notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Hands a decoder back to the pool.
+	 *
+	 * @param decoder a decoder obtained from {@link #acquire}
+	 */
+	public void release(final MovieDecoder decoder) {
+		synchronized (this) {
+			if (!closed) {
+				idle.add(decoder);
+				notifyAll();
+				return;
+			}
+			size--;
+		}
+		try {
+			decoder.close();
+		} catch (FrameGrabber.Exception e) {
+			// the pool is closed; nobody is interested any more
+		}
+	}
+
+	/**
+	 * Closes all idle decoders; busy ones are closed when they are released.
+	 */
+	public void close() throws FrameGrabber.Exception {
+		final List<MovieDecoder> toClose;
+		synchronized (this) {
+			closed = true;
+			toClose = new ArrayList<MovieDecoder>(idle);
+			size -= idle.size();
+			idle.clear();
+			notifyAll();
+		}
+		FrameGrabber.Exception exception = null;
+		for (final MovieDecoder decoder : toClose) {
+			try {
+				decoder.close();
+			} catch (FrameGrabber.Exception e) {
+				exception = e;
+			}
+		}
+		if (exception != null) throw exception;
+	}
+
+}
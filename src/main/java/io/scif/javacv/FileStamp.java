@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Identifies a particular version of a file by its canonical path, size and
+ * modification time, for use as a cache key.
+ */
+final class FileStamp {
+
+	private final String path;
+	private final long size;
+	private final long lastModified;
+
+	FileStamp(final String path, final long size, final long lastModified) {
+		this.path = path;
+		this.size = size;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * @param path the file
+	 * @return the stamp of the file's current version
+	 * @throws IOException if the file does not exist
+	 */
+	public static FileStamp of(final String path) throws IOException {
+		final File file = new File(path).getCanonicalFile();
+		if (!file.isFile()) throw new IOException("Not a file: " + path);
+		return new FileStamp(file.getPath(), file.length(), file.lastModified());
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return a file name derived from the path, suitable for a cache directory
+	 */
+	public String getCacheName() {
+		final byte[] hash =
+			CacheFiles.sha1().digest(path.getBytes(Charset.forName("UTF-8")));
+		return CacheFiles.toHex(hash, hash.length);
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (!(o instanceof FileStamp)) return false;
+		final FileStamp other = (FileStamp) o;
+		return path.equals(other.path) && size == other.size &&
+			lastModified == other.lastModified;
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode() ^ (int) (size * 31 + lastModified);
+	}
+
+	@Override
+	public String toString() {
+		return path + " (" + size + " bytes, modified " + lastModified + ")";
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of decoded frames, bounded by the total number
+ * of bytes the frames occupy.
+ *
+ * @param <T> the type of the decoded frames
+ */
+public class FrameCache<T> {
+
+	private final LinkedHashMap<Long, Entry<T>> entries =
+		new LinkedHashMap<Long, Entry<T>>(16, 0.75f, true);
+	private long maxSize;
+	private long size;
+	private long hits, misses;
+
+	/**
+	 * @param maxSize the maximal number of bytes to hold
+	 */
+	public FrameCache(final long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @param frame the frame number
+	 * @return the cached frame, or null
+	 */
+	public synchronized T get(final long frame) {
+		final Entry<T> entry = entries.get(frame);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+
+	/**
+	 * Caches a frame, evicting the least recently used ones as needed. Frames
+	 * larger than the whole cache are not cached at all.
+	 *
+	 * @param frame the frame number
+	 * @param value the decoded frame
+	 * @param bytes the number of bytes the decoded frame occupies
+	 */
+	public synchronized void put(final long frame, final T value,
+		final long bytes)
+	{
+		final Entry<T> previous = entries.remove(frame);
+		if (previous != null) size -= previous.bytes;
+		if (bytes > maxSize) return;
+		entries.put(frame, new Entry<T>(value, bytes));
+		size += bytes;
+		evict();
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * @param maxSize the maximal number of bytes to hold
+	 */
+	public synchronized void setMaxSize(final long maxSize) {
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	public synchronized long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of bytes currently held
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the number of frames currently held
+	 */
+	public synchronized int getFrameCount() {
+		return entries.size();
+	}
+
+	/**
+	 * @return how many times {@link #get(long)} found the requested frame
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return how many times {@link #get(long)} did not find the requested frame
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized void resetStatistics() {
+		hits = misses = 0;
+	}
+
+	private void evict() {
+		final Iterator<Map.Entry<Long, Entry<T>>> iter =
+			entries.entrySet().iterator();
+		while (size > maxSize && iter.hasNext()) {
+			size -= iter.next().getValue().bytes;
+			iter.remove();
+		}
+	}
+
+	private static class Entry<T> {
+
+		private final T value;
+		private final long bytes;
+
+		private Entry(final T value, final long bytes) {
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import java.nio.ByteBuffer;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+
+/**
+ * Copies pixels out of decoded frames, straight from the grabber's native
+ * buffer into the interleaved layout of SCIFIO planes.
+ */
+public final class FrameCopier {
+
+	private FrameCopier() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Copies a whole decoded frame.
+	 *
+	 * @param image the decoded frame
+	 * @param mode the pixel layout of the frame
+	 * @return the pixels, row by row without padding
+	 */
+	public static byte[] toBytes(final IplImage image, final ColorMode mode) {
+		final int channels = mode.getChannelCount();
+		final int bytes = mode.getBytesPerSample();
+		final int width = image.width(), height = image.height();
+		final byte[] result = new byte[width * height * channels * bytes];
+		if (mode.isPlanar()) {
+			copyPlanarRegion(getBuffer(image, mode), image.widthStep(), height,
+				bytes, 0, channels, 0, 0, width, height, result, 0);
+		} else {
+			copyRegion(getBuffer(image, mode), image.widthStep(), channels, bytes,
+				0, channels, 0, 0, width, height, result, 0);
+		}
+		return result;
+	}
+
+	/**
+	 * Wraps the pixels of a decoded frame. Planar frames hold their planes one
+	 * after the other, each with the same row stride.
+	 *
+	 * @param image the decoded frame
+	 * @param mode the pixel layout of the frame
+	 * @return the pixels of all planes
+	 */
+	public static ByteBuffer getBuffer(final IplImage image,
+		final ColorMode mode)
+	{
+		if (!mode.isPlanar()) return image.getByteBuffer();
+		final int size = mode.getChannelCount() * image.widthStep() * image.height();
+		return image.imageData().capacity(size).asByteBuffer();
+	}
+
+	/**
+	 * Copies a region of interleaved pixels. Only the pixels inside the region
+	 * are touched.
+	 *
+	 * @param source the pixels of the whole frame
+	 * @param stride the number of bytes per row in {@code source}
+	 * @param channels the number of channels in {@code source}
+	 * @param bytesPerSample the number of bytes per channel and pixel
+	 * @param firstChannel the first channel to copy
+	 * @param channelCount the number of channels to copy
+	 * @param x the left edge of the region
+	 * @param y the top edge of the region
+	 * @param width the width of the region
+	 * @param height the height of the region
+	 * @param dest the destination array
+	 * @param offset the offset of the region's first pixel in {@code dest}
+	 */
+	public static void copyRegion(final ByteBuffer source, final int stride,
+		final int channels, final int bytesPerSample, final int firstChannel,
+		final int channelCount, final int x, final int y, final int width,
+		final int height, final byte[] dest, final int offset)
+	{
+		copyRows(source, 0, stride, channels * bytesPerSample, firstChannel *
+			bytesPerSample, channelCount * bytesPerSample, x, y, width, height, dest,
+			null, offset);
+	}
+
+	/**
+	 * Copies a region of interleaved pixels into a buffer, e.g. a direct one;
+	 * see {@link #copyRegion(ByteBuffer, int, int, int, int, int, int, int, int,
+	 * int, byte[], int)}. The buffer's position is not changed.
+	 */
+	public static void copyRegion(final ByteBuffer source, final int stride,
+		final int channels, final int bytesPerSample, final int firstChannel,
+		final int channelCount, final int x, final int y, final int width,
+		final int height, final ByteBuffer dest, final int offset)
+	{
+		copyRows(source, 0, stride, channels * bytesPerSample, firstChannel *
+			bytesPerSample, channelCount * bytesPerSample, x, y, width, height, null,
+			dest, offset);
+	}
+
+	/**
+	 * Copies a region of planar pixels, one channel after the other.
+	 *
+	 * @param source the planes of the whole frame
+	 * @param stride the number of bytes per row in each plane
+	 * @param height the number of rows of each plane
+	 * @param bytesPerSample the number of bytes per channel and pixel
+	 * @param firstChannel the first channel to copy
+	 * @param channelCount the number of channels to copy
+	 * @param x the left edge of the region
+	 * @param y the top edge of the region
+	 * @param width the width of the region
+	 * @param regionHeight the height of the region
+	 * @param dest the destination array
+	 * @param offset the offset of the region's first pixel in {@code dest}
+	 */
+	public static void copyPlanarRegion(final ByteBuffer source,
+		final int stride, final int height, final int bytesPerSample,
+		final int firstChannel, final int channelCount, final int x, final int y,
+		final int width, final int regionHeight, final byte[] dest,
+		final int offset)
+	{
+		copyPlanes(source, stride, height, bytesPerSample, firstChannel,
+			channelCount, x, y, width, regionHeight, dest, null, offset);
+	}
+
+	/**
+	 * Copies a region of planar pixels into a buffer, e.g. a direct one; see
+	 * {@link #copyPlanarRegion(ByteBuffer, int, int, int, int, int, int, int,
+	 * int, int, byte[], int)}. The buffer's position is not changed.
+	 */
+	public static void copyPlanarRegion(final ByteBuffer source,
+		final int stride, final int height, final int bytesPerSample,
+		final int firstChannel, final int channelCount, final int x, final int y,
+		final int width, final int regionHeight, final ByteBuffer dest,
+		final int offset)
+	{
+		copyPlanes(source, stride, height, bytesPerSample, firstChannel,
+			channelCount, x, y, width, regionHeight, null, dest, offset);
+	}
+
+	private static void copyPlanes(final ByteBuffer source, final int stride,
+		final int height, final int bytesPerSample, final int firstChannel,
+		final int channelCount, final int x, final int y, final int width,
+		final int regionHeight, final byte[] array, final ByteBuffer buffer,
+		final int offset)
+	{
+		final int planeSize = stride * height;
+		final int regionSize = width * regionHeight * bytesPerSample;
+		for (int c = 0; c < channelCount; c++) {
+			copyRows(source, (firstChannel + c) * planeSize, stride, bytesPerSample,
+				0, bytesPerSample, x, y, width, regionHeight, array, buffer, offset +
+					c * regionSize);
+		}
+	}
+
+	/**
+	 * Copies rows into either an array or a buffer. Whole pixels are copied
+	 * row by row in bulk; channel subsets sample by sample. No objects are
+	 * allocated, so that reading frames in sequence creates no garbage.
+	 */
+	private static void copyRows(final ByteBuffer source, final int sourceOffset,
+		final int stride, final int pixelLength, final int sampleOffset,
+		final int sampleLength, final int x, final int y, final int width,
+		final int height, final byte[] array, final ByteBuffer buffer,
+		final int offset)
+	{
+		final int rowLength = width * sampleLength;
+		final int limit = source.limit();
+		for (int row = 0; row < height; row++) {
+			final int start = sourceOffset + (y + row) * stride + x * pixelLength;
+			final int destStart = offset + row * rowLength;
+			if (sampleLength == pixelLength) {
+				source.position(start);
+				if (array != null) {
+					source.get(array, destStart, rowLength);
+				} else {
+					source.limit(start + rowLength);
+					final int position = buffer.position();
+					buffer.position(destStart);
+					buffer.put(source);
+					buffer.position(position);
+					source.limit(limit);
+				}
+				continue;
+			}
+			for (int column = 0; column < width; column++) {
+				for (int i = 0; i < sampleLength; i++) {
+					final byte value =
+						source.get(start + column * pixelLength + sampleOffset + i);
+					final int index = destStart + column * sampleLength + i;
+					if (array != null) array[index] = value;
+					else buffer.put(index, value);
+				}
+			}
+		}
+	}
+
+}
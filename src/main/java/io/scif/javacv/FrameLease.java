@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.ByteAccess;
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * A decoded frame, viewed in place in the grabber's native memory.
+ *
+ * The lease holds on to the grabber that decoded the frame, so that the frame
+ * stays valid, until it is {@link #close() closed}. The image is read-only and
+ * must not be used after closing the lease.
+ *
+ * @param <T> {@code UnsignedByteType} for 8-bit frames, or
+ *          {@code UnsignedShortType} for 16-bit ones
+ */
+public final class FrameLease<T extends RealType<T> & NativeType<T>> implements
+	Closeable
+{
+
+	private final DecoderPool pool;
+	private final MovieDecoder decoder;
+	private final ByteBuffer buffer;
+	private final int stride;
+	private final int rowLength;
+	private final RandomAccessibleInterval<T> image;
+	private volatile boolean closed;
+
+	/**
+	 * @param pool the pool to hand the decoder back to
+	 * @param decoder the decoder that decoded the frame
+	 * @param buffer the pixels of the frame
+	 * @param stride the number of bytes per row in {@code buffer}
+	 * @param rowLength the number of bytes per row without padding
+	 * @param bytesPerSample 1 for 8-bit frames, 2 for 16-bit ones
+	 * @param dimensions the dimensions of the image, in the order of the
+	 *          samples in {@code buffer}
+	 */
+	@SuppressWarnings("unchecked")
+	FrameLease(final DecoderPool pool, final MovieDecoder decoder,
+		final ByteBuffer buffer, final int stride, final int rowLength,
+		final int bytesPerSample, final long[] dimensions)
+	{
+		this.pool = pool;
+		this.decoder = decoder;
+		this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		this.stride = stride;
+		this.rowLength = rowLength;
+		final RandomAccessibleInterval<?> img;
+		if (bytesPerSample == 1) {
+			img = ArrayImgs.unsignedBytes(new NativeByteAccess(), dimensions);
+		} else {
+			img = ArrayImgs.unsignedShorts(new NativeShortAccess(), dimensions);
+		}
+		image = (RandomAccessibleInterval<T>) img;
+	}
+
+	/**
+	 * @return the frame; valid until the lease is closed
+	 */
+	public RandomAccessibleInterval<T> getImage() {
+		return image;
+	}
+
+	/**
+	 * Hands the grabber back to the Reader; the image is invalid afterwards.
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		pool.release(decoder);
+	}
+
+	/**
+	 * Maps a byte index of the unpadded frame to the buffer, skipping the
+	 * padding at the end of the rows.
+	 */
+	private int offset(final int index) {
+		if (closed) throw new IllegalStateException("Frame lease was closed");
+		if (stride == rowLength) return index;
+		return index / rowLength * stride + index % rowLength;
+	}
+
+	private static UnsupportedOperationException readOnly() {
+		return new UnsupportedOperationException("Leased frames are read-only");
+	}
+
+	private class NativeByteAccess implements ByteAccess {
+
+		@Override
+		public byte getValue(final int index) {
+			return buffer.get(offset(index));
+		}
+
+		@Override
+		public void setValue(final int index, final byte value) {
+			throw readOnly();
+		}
+	}
+
+	private class NativeShortAccess implements ShortAccess {
+
+		@Override
+		public short getValue(final int index) {
+			return buffer.getShort(offset(2 * index));
+		}
+
+		@Override
+		public void setValue(final int index, final short value) {
+			throw readOnly();
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Decodes the frames following the current one on a background thread, into
+ * a bounded buffer, so that decoding overlaps with whatever the consumer does
+ * with the current frame. With a stride, only every n-th frame is handed out.
+ *
+ * @param <T> the type of the decoded frames
+ */
+class FramePrefetcher<T> implements FrameSequence<T> {
+
+	/**
+	 * Decodes frames in ascending order; it is only ever called from the
+	 * prefetching thread.
+	 */
+	public interface Source<T> {
+
+		T decode(int frame) throws IOException;
+	}
+
+	private final BlockingQueue<Object> queue;
+	private final Thread thread;
+	private final int stride;
+	private volatile boolean stopped;
+	private int nextFrame;
+
+	/**
+	 * Starts prefetching.
+	 *
+	 * @param source the decoder
+	 * @param firstFrame the number of the first frame to decode
+	 * @param stride the distance between the frames to decode
+	 * @param frameCount the total number of frames in the movie
+	 * @param depth how many frames to decode ahead; at least 1
+	 */
+	public FramePrefetcher(final Source<T> source, final int firstFrame,
+		final int stride, final int frameCount, final int depth)
+	{
+		if (depth < 1) {
+			throw new IllegalArgumentException("Invalid prefetch depth: " + depth);
+		}
+		queue = new ArrayBlockingQueue<Object>(depth);
+		this.stride = stride;
+		nextFrame = firstFrame;
+		thread = new Thread("scifio-javacv prefetch") {
+
+			@Override
+			public void run() {
+				try {
+					for (int i = firstFrame; i < frameCount && !stopped; i += stride) {
+						Object frame;
+						try {
+							frame = source.decode(i);
+						} catch (IOException e) {
+							frame = new DecodingFailure(e);
+						}
+						queue.put(frame);
+						if (frame instanceof DecodingFailure) return;
+					}
+				} catch (InterruptedException e) {
+					// stopped
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public int getNextFrame() {
+		return nextFrame;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T take() throws IOException {
+		final Object frame;
+		try {
+			frame = queue.take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for frame " +
+				nextFrame);
+		}
+		if (frame instanceof DecodingFailure) {
+			throw ((DecodingFailure) frame).getException();
+		}
+		nextFrame += stride;
+		return (T) frame;
+	}
+
+	/**
+	 * Stops prefetching and waits for the background thread to finish, after
+	 * which the source may be used by the caller again.
+	 */
+	@Override
+	public void stop() {
+		stopped = true;
+		thread.interrupt();
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+}
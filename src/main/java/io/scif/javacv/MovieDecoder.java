@@ -0,0 +1,260 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FrameGrabber;
+
+/**
+ * Decodes arbitrary frames of a movie using a single {@link FFmpegFrameGrabber}.
+ *
+ * The decoder keeps track of the grabber's position. A requested frame is
+ * reached either by decoding forward from the current position or, if a key
+ * frame lies in between (or the request is backwards), by seeking to the key
+ * frame preceding the requested frame, whichever needs fewer frames decoded.
+ * Either way, the frames before the requested one are decoded without
+ * converting their pixels.
+ */
+class MovieDecoder {
+
+	private final FFmpegFrameGrabber grabber;
+	private final MovieIndex index;
+	private final ColorMode mode;
+	private int nextFrame;
+	private IplImage bufferImage;
+	private ByteBuffer buffer;
+
+	/**
+	 * @param grabber the started grabber, positioned at the first frame
+	 * @param index the index of the movie
+	 * @param mode the pixel layout the grabber was set up for
+	 */
+	public MovieDecoder(final FFmpegFrameGrabber grabber, final MovieIndex index,
+		final ColorMode mode)
+	{
+		this.grabber = grabber;
+		this.index = index;
+		this.mode = mode;
+		nextFrame = 0;
+	}
+
+	/**
+	 * Opens a movie with a new grabber.
+	 *
+	 * @param path the movie file
+	 * @param index the index of the movie
+	 * @param mode the pixel layout of the decoded frames
+	 * @return the decoder, positioned at the first frame
+	 */
+	public static MovieDecoder open(final String path, final MovieIndex index,
+		final ColorMode mode) throws FrameGrabber.Exception
+	{
+		return open(path, index, mode, 0, 0);
+	}
+
+	/**
+	 * Opens a movie with a new grabber that scales the frames while converting
+	 * them, so that the full-size frames are never converted.
+	 *
+	 * @param path the movie file
+	 * @param index the index of the movie
+	 * @param mode the pixel layout of the decoded frames
+	 * @param width the width of the decoded frames, or 0 for the original width
+	 * @param height the height of the decoded frames, or 0 for the original
+	 *          height
+	 * @return the decoder, positioned at the first frame
+	 */
+	public static MovieDecoder open(final String path, final MovieIndex index,
+		final ColorMode mode, final int width, final int height)
+		throws FrameGrabber.Exception
+	{
+		final FFmpegFrameGrabber grabber =
+			createGrabber(path, mode, width, height);
+		grabber.start();
+		return new MovieDecoder(grabber, index, mode);
+	}
+
+	/**
+	 * Creates a grabber that converts frames to the given layout.
+	 *
+	 * @param path the movie file
+	 * @param mode the pixel layout of the decoded frames
+	 * @param width the width of the decoded frames, or 0 for the original width
+	 * @param height the height of the decoded frames, or 0 for the original
+	 *          height
+	 * @return the grabber, not yet started
+	 * @throws FrameGrabber.Exception if the native libraries could not be
+	 *           loaded
+	 */
+	public static FFmpegFrameGrabber createGrabber(final String path,
+		final ColorMode mode, final int width, final int height)
+		throws FrameGrabber.Exception
+	{
+		// also when the metadata came from the caches and nothing was probed
+		try {
+			NativeLibraries.ensureLoaded();
+		} catch (IOException e) {
+			throw new FrameGrabber.Exception(e.getMessage(), e);
+		}
+		final FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(path);
+		grabber.setPixelFormat(mode.getPixelFormat());
+		if (width > 0) grabber.setImageWidth(width);
+		if (height > 0) grabber.setImageHeight(height);
+		return grabber;
+	}
+
+	public FFmpegFrameGrabber getGrabber() {
+		return grabber;
+	}
+
+	public MovieIndex getIndex() {
+		return index;
+	}
+
+	public ColorMode getColorMode() {
+		return mode;
+	}
+
+	/**
+	 * @return the frame that the next call to {@link #grab()} returns
+	 */
+	public int getNextFrame() {
+		return nextFrame;
+	}
+
+	/**
+	 * Decodes the given frame.
+	 *
+	 * Note that the grabber reuses the returned image for the next frame.
+	 *
+	 * @param frame the frame number
+	 * @return the decoded frame
+	 */
+	public IplImage decode(final int frame) throws FrameGrabber.Exception {
+		seek(frame);
+		return grab();
+	}
+
+	/**
+	 * Wraps the pixels of a frame returned by {@link #decode}. The grabber keeps
+	 * its native conversion buffer as long as the frame size stays the same,
+	 * so the wrapper is reused, too.
+	 *
+	 * @param image the decoded frame
+	 * @return the pixels; see {@link FrameCopier#getBuffer}
+	 */
+	public ByteBuffer getBuffer(final IplImage image) {
+		if (image != bufferImage || buffer.capacity() != getBufferSize(image)) {
+			buffer = FrameCopier.getBuffer(image, mode);
+			bufferImage = image;
+		}
+		return buffer;
+	}
+
+	private int getBufferSize(final IplImage image) {
+		final int planes = mode.isPlanar() ? mode.getChannelCount() : 1;
+		return planes * image.widthStep() * image.height();
+	}
+
+	/**
+	 * Positions the grabber so that the next call to {@link #grab()} returns the
+	 * given frame.
+	 *
+	 * @param frame the frame number
+	 */
+	public void seek(final int frame) throws FrameGrabber.Exception {
+		if (frame < 0 || frame >= index.getFrameCount()) {
+			throw new FrameGrabber.Exception("Invalid frame: " + frame);
+		}
+		if (frame == nextFrame) return;
+		final FrameGrabber.ImageMode mode = grabber.getImageMode();
+		// the frames before the requested one need not be converted
+		grabber.setImageMode(FrameGrabber.ImageMode.RAW);
+		try {
+			if (canDecodeForward(frame)) {
+				while (nextFrame < frame) {
+					grab();
+				}
+			} else {
+				// seeks to the preceding key frame and decodes up to the time stamp
+				grabber.setTimestamp(index.getTimestamp(frame));
+				nextFrame = frame;
+			}
+		} finally {
+			grabber.setImageMode(mode);
+		}
+	}
+
+	/**
+	 * Estimates how many frames need to be decoded to get to the given frame
+	 * from the current position.
+	 *
+	 * @param frame the frame number
+	 * @return the number of frames to decode before the requested one
+	 */
+	public int getCost(final int frame) {
+		return canDecodeForward(frame) ? frame - nextFrame : frame -
+			index.getKeyFrameBefore(frame);
+	}
+
+	private boolean canDecodeForward(final int frame) {
+		return frame >= nextFrame && !index.hasKeyFrameBetween(nextFrame, frame);
+	}
+
+	/**
+	 * Decodes the next frame.
+	 *
+	 * @return the decoded frame
+	 */
+	public IplImage grab() throws FrameGrabber.Exception {
+		final IplImage image = grabber.grab();
+		if (image == null) {
+			throw new FrameGrabber.Exception("Could not decode frame " + nextFrame);
+		}
+		nextFrame++;
+		return image;
+	}
+
+	public void close() throws FrameGrabber.Exception {
+		grabber.stop();
+		grabber.release();
+	}
+
+}
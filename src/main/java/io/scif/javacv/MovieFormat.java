@@ -35,17 +35,21 @@
 
 package io.scif.javacv;
 
+import static org.bytedeco.javacpp.avformat.avformat_close_input;
+
+import io.scif.AbstractChecker;
 import io.scif.AbstractFormat;
 import io.scif.AbstractMetadata;
 import io.scif.AbstractParser;
 import io.scif.AbstractWriter;
 import io.scif.BufferedImagePlane;
+import io.scif.ByteArrayPlane;
+import io.scif.ByteArrayReader;
 import io.scif.FormatException;
 import io.scif.ImageMetadata;
 import io.scif.Plane;
 import io.scif.config.SCIFIOConfig;
 import io.scif.gui.AWTImageTools;
-import io.scif.gui.BufferedImageReader;
 import io.scif.io.RandomAccessInputStream;
 import io.scif.io.RandomAccessOutputStream;
 import io.scif.util.FormatTools;
@@ -53,12 +57,18 @@ import io.scif.util.SCIFIOMetadataTools;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import net.imagej.axis.Axes;
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
 
+import org.bytedeco.javacpp.avformat.AVFormatContext;
 import org.bytedeco.javacpp.opencv_core.IplImage;
-import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.FFmpegFrameRecorder;
 import org.bytedeco.javacv.FrameGrabber;
 import org.bytedeco.javacv.FrameRecorder;
@@ -76,6 +86,57 @@ import org.scijava.plugin.Plugin;
 @Plugin(type = MovieFormat.class)
 public class MovieFormat extends AbstractFormat {
 
+	/** The maximal width or height of thumbnails. */
+	public static final int THUMBNAIL_SIZE = 128;
+
+	/**
+	 * The {@link SCIFIOConfig} key for the number of resolution levels to
+	 * expose; see {@link Metadata#setResolutionCount(int)}.
+	 */
+	public static final String RESOLUTION_COUNT = "javacv.resolutionCount";
+
+	/**
+	 * The {@link SCIFIOConfig} key for the {@link ColorMode} to decode frames
+	 * in, given as the mode or its name.
+	 */
+	public static final String COLOR_MODE = "javacv.colorMode";
+
+	/**
+	 * The {@link SCIFIOConfig} key for the maximal number of bytes FFmpeg reads
+	 * while detecting the streams; see {@link Metadata#setProbeSize(long)}.
+	 */
+	public static final String PROBE_SIZE = "javacv.probeSize";
+
+	/**
+	 * The {@link SCIFIOConfig} key for the maximal stream duration FFmpeg reads
+	 * while detecting the streams; see {@link Metadata#setAnalyzeDuration(long)}.
+	 */
+	public static final String ANALYZE_DURATION = "javacv.analyzeDuration";
+
+	/**
+	 * The {@link SCIFIOConfig} key for whether to count the frames exactly; see
+	 * {@link Metadata#setExactFrameCount(boolean)}.
+	 */
+	public static final String EXACT_FRAME_COUNT = "javacv.exactFrameCount";
+
+	/**
+	 * The {@link SCIFIOConfig} key for the number of frames to decode ahead;
+	 * see {@link Reader#setPrefetchDepth(int)}.
+	 */
+	public static final String PREFETCH_DEPTH = "javacv.prefetchDepth";
+
+	/**
+	 * The {@link SCIFIOConfig} key for the number of parallel decoders; see
+	 * {@link Reader#setDecoderThreads(int)}.
+	 */
+	public static final String DECODER_THREADS = "javacv.decoderThreads";
+
+	/**
+	 * The {@link SCIFIOConfig} key for the distance between the planes that
+	 * will be read; see {@link Reader#setStride(int)}.
+	 */
+	public static final String STRIDE = "javacv.stride";
+
 	@Parameter
 	private LogService log;
 
@@ -97,6 +158,18 @@ public class MovieFormat extends AbstractFormat {
 
 		private int bitRate = 400000;
 		private double frameRate = 25;
+		private int resolutionCount = 1;
+		private ColorMode colorMode = ColorMode.RGB;
+		private int bitDepth = 8;
+		private String sourcePixelFormat;
+		private int chromaShiftX, chromaShiftY;
+		private long probeSize;
+		private long analyzeDuration;
+		private boolean exactFrameCount;
+		private int prefetchDepth;
+		private int decoderThreads = 1;
+		private int stride = 1;
+		private transient MovieIndex index;
 
 		@Override
 		public void populateImageMetadata() {
@@ -118,42 +191,466 @@ public class MovieFormat extends AbstractFormat {
 			return frameRate;
 		}
 
+		/**
+		 * Sets the number of resolution levels to expose. Each level halves the
+		 * width and height of the previous one, and is exposed as an additional
+		 * image: image {@code i} holds level {@code i}. Reduced levels are scaled
+		 * while converting the decoded frames, so the full-size frames are never
+		 * converted.
+		 *
+		 * @param resolutionCount the number of levels, including the full
+		 *          resolution
+		 */
+		public void setResolutionCount(int resolutionCount) {
+			this.resolutionCount = resolutionCount;
+		}
+
+		public int getResolutionCount() {
+			return resolutionCount;
+		}
+
+		/**
+		 * Sets the pixel layout of the planes. In {@link ColorMode#GRAY}, planes
+		 * have a single channel and no {@link Axes#CHANNEL} axis; in
+		 * {@link ColorMode#YUV}, the {@link Axes#CHANNEL} axis follows
+		 * {@link Axes#Y}, i.e. each plane holds the Y, U and V planes one after
+		 * the other.
+		 *
+		 * @param colorMode the color mode
+		 */
+		public void setColorMode(ColorMode colorMode) {
+			this.colorMode = colorMode;
+		}
+
+		public ColorMode getColorMode() {
+			return colorMode;
+		}
+
+		/**
+		 * @param bitDepth the significant bits per sample of the source
+		 */
+		public void setBitDepth(int bitDepth) {
+			this.bitDepth = bitDepth;
+		}
+
+		public int getBitDepth() {
+			return bitDepth;
+		}
+
+		/**
+		 * @param pixelFormat the name of the decoder's native pixel format, e.g.
+		 *          {@code yuv420p}, or null if unknown
+		 */
+		public void setSourcePixelFormat(String pixelFormat) {
+			sourcePixelFormat = pixelFormat;
+		}
+
+		/**
+		 * Returns the decoder's native pixel format. The planes are converted
+		 * from it into the {@link #getColorMode() color mode}; e.g. in
+		 * {@link ColorMode#YUV}, subsampled chroma planes are scaled up.
+		 *
+		 * @return the name of the pixel format, or null if unknown
+		 */
+		public String getSourcePixelFormat() {
+			return sourcePixelFormat;
+		}
+
+		/**
+		 * Sets the chroma subsampling of the native pixel format.
+		 *
+		 * @param shiftX how many times the chroma planes are halved horizontally
+		 * @param shiftY how many times the chroma planes are halved vertically
+		 */
+		public void setChromaSubsampling(int shiftX, int shiftY) {
+			chromaShiftX = shiftX;
+			chromaShiftY = shiftY;
+		}
+
+		/**
+		 * @return how many times the native chroma planes are halved
+		 *         horizontally, e.g. 1 for {@code yuv420p}
+		 */
+		public int getChromaShiftX() {
+			return chromaShiftX;
+		}
+
+		/**
+		 * @return how many times the native chroma planes are halved vertically,
+		 *         e.g. 1 for {@code yuv420p} and 0 for {@code yuv422p}
+		 */
+		public int getChromaShiftY() {
+			return chromaShiftY;
+		}
+
+		/**
+		 * Limits how much of the file FFmpeg reads to detect the streams. Small
+		 * values speed up opening, but may miss streams that start late.
+		 *
+		 * @param probeSize the maximal number of bytes, or 0 for FFmpeg's default
+		 */
+		public void setProbeSize(long probeSize) {
+			this.probeSize = probeSize;
+		}
+
+		public long getProbeSize() {
+			return probeSize;
+		}
+
+		/**
+		 * Limits how much of the streams FFmpeg reads to determine their
+		 * parameters, e.g. the frame rate.
+		 *
+		 * @param analyzeDuration the maximal duration, in microseconds, or 0 for
+		 *          FFmpeg's default
+		 */
+		public void setAnalyzeDuration(long analyzeDuration) {
+			this.analyzeDuration = analyzeDuration;
+		}
+
+		public long getAnalyzeDuration() {
+			return analyzeDuration;
+		}
+
+		/**
+		 * Sets whether the length of the {@link Axes#TIME} axis is taken from the
+		 * key frame index instead of the container's frame count, which is only
+		 * an estimate for some containers and variable frame rate movies. If no
+		 * index is cached, this demuxes the whole movie while parsing, but
+		 * decodes nothing.
+		 *
+		 * @param exactFrameCount whether to count the frames exactly
+		 */
+		public void setExactFrameCount(boolean exactFrameCount) {
+			this.exactFrameCount = exactFrameCount;
+		}
+
+		public boolean isExactFrameCount() {
+			return exactFrameCount;
+		}
+
+		/**
+		 * @param prefetchDepth the number of frames the Reader decodes ahead;
+		 *          see {@link Reader#setPrefetchDepth(int)}
+		 */
+		public void setPrefetchDepth(int prefetchDepth) {
+			this.prefetchDepth = prefetchDepth;
+		}
+
+		public int getPrefetchDepth() {
+			return prefetchDepth;
+		}
+
+		/**
+		 * @param decoderThreads the number of parallel decoders the Reader uses;
+		 *          see {@link Reader#setDecoderThreads(int)}
+		 */
+		public void setDecoderThreads(int decoderThreads) {
+			this.decoderThreads = decoderThreads;
+		}
+
+		public int getDecoderThreads() {
+			return decoderThreads;
+		}
+
+		/**
+		 * @param stride the distance between the planes that will be read; see
+		 *          {@link Reader#setStride(int)}
+		 */
+		public void setStride(int stride) {
+			this.stride = stride;
+		}
+
+		public int getStride() {
+			return stride;
+		}
+
+		/**
+		 * @param index the key frame index of the movie, if known
+		 */
+		public void setIndex(MovieIndex index) {
+			this.index = index;
+		}
+
+		/**
+		 * @return the key frame index of the movie, or null if not known yet
+		 */
+		public MovieIndex getIndex() {
+			return index;
+		}
+
 	}
 
-	private static Metadata parseMetadata(final FFmpegFrameGrabber grabber, Metadata meta) throws IOException {
-		if (meta.getImageCount() < 1) meta.createImageMetadata(1);
-		final ImageMetadata iMeta = meta.get(0);
+	/**
+	 * Opens and probes the movie once. The same context provides the metadata
+	 * and, if requested and no cached index exists, the key frame index. The
+	 * movie is not opened at all if both are cached.
+	 */
+	private static Metadata parseMetadata(final String path, final Metadata meta,
+		final boolean index) throws IOException
+	{
+		final boolean scan = index || meta.isExactFrameCount();
+		meta.setDatasetName(path);
+		final MovieProbeCache probes = MovieProbeCache.getDefault();
+		final MovieIndexCache indexes = MovieIndexCache.getDefault();
+		MovieProbe probe =
+			probes.load(path, meta.getProbeSize(), meta.getAnalyzeDuration());
+		if (meta.getIndex() == null && indexes != null) {
+			meta.setIndex(indexes.load(path));
+		}
+		if (probe != null && (meta.getIndex() != null || !scan)) {
+			return setFrameCount(parseMetadata(probe, meta));
+		}
+		final AVFormatContext context =
+			MovieProbe.open(path, meta.getProbeSize(), meta.getAnalyzeDuration());
 		try {
-			grabber.start();
-			meta.setFrameRate(grabber.getFrameRate());
-			iMeta.setAxisLength(Axes.X, grabber.getImageWidth());
-			iMeta.setAxisLength(Axes.Y, grabber.getImageHeight());
-			iMeta.setAxisLength(Axes.TIME, grabber.getLengthInFrames());
-			final BufferedImage image = grabber.grab().getBufferedImage();
-			iMeta.setPixelType(AWTImageTools.getPixelType(image));
+			if (probe == null) {
+				probe = MovieProbe.probe(context);
+				probes.store(path, meta.getProbeSize(), meta.getAnalyzeDuration(),
+					probe);
+			}
+			parseMetadata(probe, meta);
+			if (meta.getIndex() == null && scan) {
+				meta.setIndex(MovieIndex.scan(context));
+				if (indexes != null) indexes.store(path, meta.getIndex());
+			}
+			return setFrameCount(meta);
+		} finally {
+			avformat_close_input(context);
+		}
+	}
+
+	/**
+	 * Replaces the container's frame count by the index's, if requested.
+	 */
+	private static Metadata setFrameCount(final Metadata meta) {
+		if (!meta.isExactFrameCount() || meta.getIndex() == null) return meta;
+		final int frameCount = meta.getIndex().getFrameCount();
+		for (int level = 0; level < meta.getImageCount(); level++) {
+			meta.get(level).setAxisLength(Axes.TIME, frameCount);
+		}
+		return meta;
+	}
+
+	/**
+	 * Fills in the metadata from the container and codec headers; no codec is
+	 * opened and no frame is decoded. Sources with more than 8 bits per sample
+	 * are decoded into uint16 planes so that no precision is lost.
+	 */
+	private static Metadata parseMetadata(final MovieProbe probe,
+		final Metadata meta)
+	{
+		final int levels = Math.max(1, meta.getResolutionCount());
+		if (meta.getImageCount() != levels) meta.createImageMetadata(levels);
+		meta.setBitDepth(probe.getBitDepth());
+		meta.setSourcePixelFormat(probe.getPixelFormat());
+		meta.setChromaSubsampling(probe.getChromaShiftX(), probe.getChromaShiftY());
+		meta.setColorMode(meta.getColorMode().forSource(probe.getPixelFormat())
+			.forBitDepth(meta.getBitDepth()));
+		meta.setFrameRate(probe.getFrameRate());
+		final int width = probe.getWidth();
+		final int height = probe.getHeight();
+		final ColorMode mode = meta.getColorMode();
+		final int channels = mode.getChannelCount();
+		final boolean deep = mode.getBytesPerSample() > 1;
+		final int pixelType = deep ? FormatTools.UINT16 : FormatTools.UINT8;
+		for (int level = 0; level < levels; level++) {
+			final ImageMetadata iMeta = meta.get(level);
+			if (mode.isPlanar()) {
+				iMeta.setAxisTypes(Axes.X, Axes.Y, Axes.CHANNEL, Axes.TIME, Axes.Z);
+				iMeta.setPlanarAxisCount(3);
+				iMeta.setAxisLength(Axes.CHANNEL, channels);
+			} else if (channels > 1) {
+				iMeta.setAxisTypes(Axes.CHANNEL, Axes.X, Axes.Y, Axes.TIME, Axes.Z);
+				iMeta.setPlanarAxisCount(3);
+				iMeta.setAxisLength(Axes.CHANNEL, channels);
+			} else {
+				iMeta.setAxisTypes(Axes.X, Axes.Y, Axes.TIME, Axes.Z);
+				iMeta.setPlanarAxisCount(2);
+			}
+			iMeta.setAxisLength(Axes.X, Math.max(1, width >> level));
+			iMeta.setAxisLength(Axes.Y, Math.max(1, height >> level));
+			setThumbSize(iMeta, width, height);
+			iMeta.setAxisLength(Axes.TIME, probe.getFrameCount());
+			iMeta.setPixelType(pixelType);
 			iMeta.setAxisLength(Axes.Z, 1);
-			iMeta.setBitsPerPixel(grabber.getBitsPerPixel());
-			iMeta.setLittleEndian(false);
+			iMeta.setBitsPerPixel(FormatTools.getBitsPerPixel(pixelType));
+			iMeta.setLittleEndian(deep);
 			iMeta.setMetadataComplete(true);
 			iMeta.setFalseColor(false);
-			return meta;
-		} catch (FrameGrabber.Exception e) {
-			throw new IOException(e);
+		}
+		return meta;
+	}
+
+	/**
+	 * Warns if the YUV planes were requested from a source that has none; see
+	 * {@link ColorMode#forSource(String)}.
+	 */
+	private static void checkColorMode(final LogService log,
+		final ColorMode requested, final Metadata meta)
+	{
+		if (!requested.isPlanar() || meta.getColorMode().isPlanar()) return;
+		log.warn(meta.getDatasetName() + " has no YUV planes (" +
+			meta.getSourcePixelFormat() + "); reading it as " +
+			meta.getColorMode() + " instead");
+	}
+
+	private static int getInt(final SCIFIOConfig config, final String key,
+		final int defaultValue)
+	{
+		final Object value = config == null ? null : config.get(key);
+		return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+	}
+
+	private static long getLong(final SCIFIOConfig config, final String key,
+		final long defaultValue)
+	{
+		final Object value = config == null ? null : config.get(key);
+		return value instanceof Number ? ((Number) value).longValue()
+			: defaultValue;
+	}
+
+	private static void setThumbSize(final ImageMetadata iMeta, final int width,
+		final int height)
+	{
+		if (width >= height) {
+			iMeta.setThumbSizeX(Math.min(width, THUMBNAIL_SIZE));
+			iMeta.setThumbSizeY(Math.max(1, (int) ((long) height *
+				iMeta.getThumbSizeX() / Math.max(1, width))));
+		} else {
+			iMeta.setThumbSizeY(Math.min(height, THUMBNAIL_SIZE));
+			iMeta.setThumbSizeX(Math.max(1, (int) ((long) width *
+				iMeta.getThumbSizeY() / height)));
+		}
+	}
+
+	/**
+	 * Recognizes movies by the signature of their container, in pure Java, so
+	 * that misnamed movies are found and other files never reach FFmpeg.
+	 */
+	public static class Checker extends AbstractChecker {
+
+		/** The number of bytes needed to recognize any supported container. */
+		public static final int HEADER_SIZE = 3 * 188 + 4;
+
+		/**
+		 * The major brands of ISO base media files that hold still images
+		 * (HEIF, AVIF) or audio only (M4A and friends) rather than movies.
+		 */
+		private static final String[] NON_MOVIE_BRANDS = { "heic", "heix",
+			"heim", "heis", "hevc", "hevx", "mif1", "msf1", "avif", "avis", "M4A ",
+			"M4B ", "M4P ", "F4A ", "F4B " };
+
+		@Override
+		public boolean suffixNecessary() {
+			return false;
+		}
+
+		@Override
+		public boolean suffixSufficient() {
+			return false;
+		}
+
+		@Override
+		public boolean isFormat(final RandomAccessInputStream stream)
+			throws IOException
+		{
+			final byte[] header =
+				new byte[(int) Math.min(HEADER_SIZE, stream.length())];
+			stream.seek(0);
+			stream.readFully(header);
+			return isMovieHeader(header, header.length);
+		}
+
+		/**
+		 * Checks for the signature of an AVI, ISO base media (MP4, QuickTime),
+		 * FLV, MPEG program or transport stream, or Ogg container. ISO base media
+		 * files whose major brand denotes still images or audio are rejected.
+		 *
+		 * @param header the first bytes of the file
+		 * @param length the number of valid bytes
+		 * @return whether the bytes start a supported container
+		 */
+		public static boolean isMovieHeader(final byte[] header, final int length) {
+			if (length < 4) return false;
+			if (matches(header, length, 0, "RIFF")) {
+				return matches(header, length, 8, "AVI ");
+			}
+			if (matches(header, length, 4, "ftyp")) {
+				for (final String brand : NON_MOVIE_BRANDS) {
+					if (matches(header, length, 8, brand)) return false;
+				}
+				return true;
+			}
+			// QuickTime files may start with any top-level atom
+			if (matches(header, length, 4, "moov") ||
+				matches(header, length, 4, "mdat") ||
+				matches(header, length, 4, "wide") ||
+				matches(header, length, 4, "free") ||
+				matches(header, length, 4, "skip") ||
+				matches(header, length, 4, "pnot"))
+			{
+				return true;
+			}
+			if (matches(header, length, 0, "FLV") && header[3] == 1) return true;
+			if (matches(header, length, 0, "OggS")) return true;
+			if (header[0] == 0 && header[1] == 0 && header[2] == 1) {
+				// MPEG program stream pack header or video sequence header
+				final int code = header[3] & 0xff;
+				return code == 0xba || code == 0xb3;
+			}
+			// transport streams, plain or with the 4-byte time codes of M2TS
+			return isTransportStream(header, length, 0, 188) ||
+				isTransportStream(header, length, 4, 192);
+		}
+
+		private static boolean matches(final byte[] header, final int length,
+			final int offset, final String signature)
+		{
+			if (offset + signature.length() > length) return false;
+			for (int i = 0; i < signature.length(); i++) {
+				if (header[offset + i] != signature.charAt(i)) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Requires the sync byte at the start of every packet in the header, and
+		 * at least two packets so that a stray 0x47 does not match.
+		 */
+		private static boolean isTransportStream(final byte[] header,
+			final int length, final int offset, final int packetSize)
+		{
+			if (offset + packetSize >= length) return false;
+			for (int i = offset; i < length; i += packetSize) {
+				if (header[i] != 0x47) return false;
+			}
+			return true;
 		}
 	}
 
 	public static class Parser extends AbstractParser<Metadata> {
 
+		@Parameter
+		private LogService log;
+
 		@Override
 		protected void typedParse(RandomAccessInputStream stream, Metadata meta, SCIFIOConfig config)
 				throws IOException, FormatException {
-			final FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(stream.getFileName());
-			parseMetadata(grabber, meta);
-			try {
-				grabber.stop();
-			} catch (FrameGrabber.Exception e) {
-				throw new IOException(e);
-			}
+			final ColorMode colorMode = ColorMode.valueOf(config == null ? null
+				: config.get(COLOR_MODE), ColorMode.RGB);
+			meta.setResolutionCount(getInt(config, RESOLUTION_COUNT, 1));
+			meta.setColorMode(colorMode);
+			meta.setProbeSize(getLong(config, PROBE_SIZE, 0));
+			meta.setAnalyzeDuration(getLong(config, ANALYZE_DURATION, 0));
+			meta.setExactFrameCount(config != null &&
+				Boolean.TRUE.equals(config.get(EXACT_FRAME_COUNT)));
+			meta.setPrefetchDepth(getInt(config, PREFETCH_DEPTH, 0));
+			meta.setDecoderThreads(getInt(config, DECODER_THREADS, 1));
+			meta.setStride(getInt(config, STRIDE, 1));
+			// only pick up an existing index; scanning is left to the Reader
+			parseMetadata(stream.getFileName(), meta, false);
+			checkColorMode(log, colorMode, meta);
 		}
 	}
 
@@ -179,6 +676,7 @@ public class MovieFormat extends AbstractFormat {
 			final Metadata metadata = getMetadata();
 			width = metadata.get(imageIndex).getAxisLength(Axes.X);
 			height = metadata.get(imageIndex).getAxisLength(Axes.Y);
+			NativeLibraries.ensureLoaded();
 			recorder = new FFmpegFrameRecorder(path, (int) width, (int) height);
 			recorder.setFrameRate(metadata.getFrameRate());
 			recorder.setVideoBitrate(metadata.getBitRate());
@@ -250,11 +748,36 @@ public class MovieFormat extends AbstractFormat {
 		}
 	}
 
-	public static class Reader extends BufferedImageReader<Metadata> {
+	public static class Reader extends ByteArrayReader<Metadata> {
 
-		private FFmpegFrameGrabber grabber;
-		private String path;
-		private int nextPlaneIndex;
+		/**
+		 * The default byte budget of the decoded-frame cache: none, since reading
+		 * in sequence never hits it and caching costs a copy of every frame.
+		 */
+		public static final long DEFAULT_FRAME_CACHE_SIZE = 0;
+
+		@Parameter
+		private LogService log;
+
+		// set by setSource and reset by close while other threads may be reading
+		private volatile DecoderPool pool;
+		private volatile DecoderPool[] reducedPools;
+		private final Object poolLock = new Object();
+		private int poolSize = Runtime.getRuntime().availableProcessors();
+		private int resolutionCount = 1;
+		private ColorMode colorMode = ColorMode.RGB;
+		private long probeSize;
+		private long analyzeDuration;
+		private boolean exactFrameCount;
+		private final FrameCache<byte[]> frameCache =
+			new FrameCache<byte[]>(DEFAULT_FRAME_CACHE_SIZE);
+		private int prefetchDepth;
+		private int stride = 1;
+		private int decoderThreads = 1;
+		private FrameSequence<byte[]> sequence;
+		private MovieDecoder sequenceDecoder;
+		private MovieDecoder thumbDecoder;
+		private final Object thumbLock = new Object();
 
 		@Override
 		public String[] createDomainArray() {
@@ -263,70 +786,809 @@ public class MovieFormat extends AbstractFormat {
 
 		@Override
 		public String getCurrentFile() {
-			return grabber == null ? null : path;
+			final DecoderPool current = pool;
+			return current == null ? null : current.getPath();
+		}
+
+		/**
+		 * Adopts the settings the metadata was parsed with, so that
+		 * {@link #setSource(String)} can reuse it instead of probing the movie
+		 * again.
+		 */
+		@Override
+		public void setMetadata(final Metadata meta) throws IOException {
+			super.setMetadata(meta);
+			resolutionCount = meta.getResolutionCount();
+			colorMode = meta.getColorMode();
+			probeSize = meta.getProbeSize();
+			analyzeDuration = meta.getAnalyzeDuration();
+			exactFrameCount = meta.isExactFrameCount();
+			setPrefetchDepth(meta.getPrefetchDepth());
+			setDecoderThreads(meta.getDecoderThreads());
+			setStride(meta.getStride());
 		}
 
+		/**
+		 * Opens a movie. If the Parser already probed it with the current
+		 * settings, e.g. when opened by an {@code ImgOpener}, its metadata is
+		 * used as is; otherwise the movie is probed once, and indexed from the
+		 * same context.
+		 */
 		@Override
 		public void setSource(final String path) throws IOException {
+			final Metadata parsed = getMetadata();
 			close();
-			this.path = path;
-			grabber = new FFmpegFrameGrabber(path);
 			try {
-				final Metadata meta = (Metadata)getFormat().createMetadata();
-				setMetadata(parseMetadata(grabber, meta));
-				grabber.start();
-				nextPlaneIndex = 0;
-			} catch (FrameGrabber.Exception e) {
-				throw new IOException(e);
+				final Metadata meta;
+				if (isParsed(parsed, path)) {
+					meta = parsed;
+					if (meta.getIndex() == null) meta.setIndex(createIndex(path, meta));
+				} else {
+					meta = (Metadata) getFormat().createMetadata();
+					meta.setResolutionCount(resolutionCount);
+					meta.setColorMode(colorMode);
+					meta.setProbeSize(probeSize);
+					meta.setAnalyzeDuration(analyzeDuration);
+					meta.setExactFrameCount(exactFrameCount);
+					meta.setPrefetchDepth(prefetchDepth);
+					meta.setDecoderThreads(decoderThreads);
+					meta.setStride(stride);
+					final ColorMode requested = colorMode;
+					setMetadata(parseMetadata(path, meta, true));
+					checkColorMode(log, requested, meta);
+					// the next movie may have YUV planes
+					colorMode = requested;
+				}
+				// the first grabber is only started when pixels are requested
+				reducedPools = new DecoderPool[meta.getImageCount()];
+				pool = new DecoderPool(path, meta.getIndex(), meta.getColorMode(), 0,
+					0, poolSize);
 			} catch (FormatException e) {
 				throw new IOException(e);
 			}
 		}
 
+		private boolean isParsed(final Metadata meta, final String path) {
+			return meta != null && path.equals(meta.getDatasetName()) &&
+				meta.getResolutionCount() == resolutionCount &&
+				meta.getProbeSize() == probeSize &&
+				meta.getAnalyzeDuration() == analyzeDuration &&
+				meta.isExactFrameCount() == exactFrameCount &&
+				meta.getColorMode() == colorMode.forSource(meta.getSourcePixelFormat())
+					.forBitDepth(meta.getBitDepth());
+		}
+
+		/**
+		 * Returns the key frame index of the current movie.
+		 *
+		 * @return the index, or null if no movie is open
+		 */
+		public MovieIndex getIndex() {
+			final DecoderPool current = pool;
+			return current == null ? null : current.getIndex();
+		}
+
+		/**
+		 * Looks up the presentation time stamp of a plane in the container.
+		 *
+		 * @param planeIndex the plane index
+		 * @return the time stamp, in microseconds since the start of the movie
+		 * @throws FormatException if no movie is open or the plane is out of range
+		 */
+		public long getTimestamp(final long planeIndex) throws FormatException {
+			return checkPlaneIndex(0, planeIndex).getIndex().getTimestamp(
+				(int) planeIndex);
+		}
+
+		/**
+		 * Finds the plane displayed at the given time; this is reliable for
+		 * variable frame rate movies, too.
+		 *
+		 * @param timestamp the time, in microseconds since the start of the movie
+		 * @return the plane index
+		 * @throws FormatException if no movie is open or the time is negative
+		 */
+		public long getPlaneIndex(final long timestamp) throws FormatException {
+			final DecoderPool current = checkOpen();
+			if (timestamp < 0) {
+				throw new FormatException("Invalid time stamp: " + timestamp);
+			}
+			return current.getIndex().getFrameAt(timestamp);
+		}
+
+		/**
+		 * Opens the plane displayed at the given time, seeking directly to it.
+		 *
+		 * @param imageIndex the image index
+		 * @param timestamp the time, in microseconds since the start of the movie
+		 * @return the plane
+		 */
+		public ByteArrayPlane openPlaneAtTime(final int imageIndex,
+			final long timestamp) throws FormatException, IOException
+		{
+			return openPlane(imageIndex, getPlaneIndex(timestamp));
+		}
+
+		/**
+		 * Sets the byte budget of the decoded-frame cache; 0, the default,
+		 * disables caching. Caching pays off when the same planes are read
+		 * repeatedly, e.g. while browsing back and forth.
+		 *
+		 * @param bytes the maximal number of bytes of decoded frames to keep
+		 */
+		public void setFrameCacheSize(final long bytes) {
+			frameCache.setMaxSize(bytes);
+		}
+
+		/**
+		 * Returns the cache of decoded frames, e.g. to inspect its hit rate.
+		 *
+		 * @return the cache
+		 */
+		public FrameCache<byte[]> getFrameCache() {
+			return frameCache;
+		}
+
+		/**
+		 * Sets how many grabbers may be open at the same time. Planes may be read
+		 * from several threads at once; each grabber serves one thread at a time,
+		 * and each request goes to the idle grabber positioned closest before the
+		 * requested plane.
+		 *
+		 * @param size the maximal number of grabbers
+		 */
+		public void setDecoderPoolSize(final int size) {
+			poolSize = size;
+			final DecoderPool current = pool;
+			if (current != null) current.setMaxSize(size);
+			synchronized (poolLock) {
+				if (reducedPools != null) {
+					for (final DecoderPool reduced : reducedPools) {
+						if (reduced != null) reduced.setMaxSize(size);
+					}
+				}
+			}
+		}
+
+		public int getDecoderPoolSize() {
+			return poolSize;
+		}
+
+		/**
+		 * Sets the number of resolution levels to expose for movies opened
+		 * afterwards; see {@link Metadata#setResolutionCount(int)}.
+		 *
+		 * @param count the number of levels, including the full resolution
+		 */
+		public void setResolutionCount(final int count) {
+			resolutionCount = count;
+		}
+
+		public int getResolutionCount() {
+			return resolutionCount;
+		}
+
+		/**
+		 * Sets the pixel layout for movies opened afterwards. Use
+		 * {@link ColorMode#GRAY} for monochrome movies: only the luma plane is
+		 * kept, which takes a third of the memory and conversion work of RGB.
+		 * Movies with more than 8 bits per sample use the 16-bit variant of the
+		 * mode, and movies without YUV planes are not converted to YUV; see
+		 * {@link ColorMode#forSource(String)}.
+		 *
+		 * @param colorMode the color mode
+		 */
+		public void setColorMode(final ColorMode colorMode) {
+			this.colorMode = colorMode;
+		}
+
+		public ColorMode getColorMode() {
+			return colorMode;
+		}
+
+		/**
+		 * Limits how much of the file is read to detect the streams of movies
+		 * opened afterwards; see {@link Metadata#setProbeSize(long)}. Together
+		 * with {@link #setAnalyzeDuration(long)}, this bounds the time to open a
+		 * movie.
+		 *
+		 * @param bytes the maximal number of bytes, or 0 for FFmpeg's default
+		 */
+		public void setProbeSize(final long bytes) {
+			probeSize = bytes;
+		}
+
+		public long getProbeSize() {
+			return probeSize;
+		}
+
+		/**
+		 * Limits how much of the streams is read to determine their parameters
+		 * for movies opened afterwards; see
+		 * {@link Metadata#setAnalyzeDuration(long)}.
+		 *
+		 * @param microseconds the maximal duration, or 0 for FFmpeg's default
+		 */
+		public void setAnalyzeDuration(final long microseconds) {
+			analyzeDuration = microseconds;
+		}
+
+		public long getAnalyzeDuration() {
+			return analyzeDuration;
+		}
+
+		/**
+		 * Sets whether movies opened afterwards report their exact number of
+		 * planes; see {@link Metadata#setExactFrameCount(boolean)}.
+		 *
+		 * @param exact whether to count the frames exactly
+		 */
+		public void setExactFrameCount(final boolean exact) {
+			exactFrameCount = exact;
+		}
+
+		public boolean isExactFrameCount() {
+			return exactFrameCount;
+		}
+
+		/**
+		 * Enables decoding the next frames on a background thread while the
+		 * caller processes the current one. This pays off when reading planes in
+		 * sequence.
+		 *
+		 * @param depth how many frames to decode ahead; 0 disables prefetching
+		 */
+		public synchronized void setPrefetchDepth(final int depth) {
+			stopDecodingAhead();
+			prefetchDepth = depth;
+		}
+
+		public int getPrefetchDepth() {
+			return prefetchDepth;
+		}
+
+		/**
+		 * Tells the Reader that only every n-th plane will be read, so that read
+		 * ahead decodes just those. The frames in between are skipped by seeking
+		 * to a key frame or decoding forward, whichever is cheaper, and are never
+		 * converted. This has no effect unless prefetching is enabled, and takes
+		 * precedence over parallel decoding.
+		 *
+		 * @param stride the distance between the planes that will be read
+		 */
+		public synchronized void setStride(final int stride) {
+			if (stride < 1) {
+				throw new IllegalArgumentException("Invalid stride: " + stride);
+			}
+			stopDecodingAhead();
+			this.stride = stride;
+		}
+
+		public int getStride() {
+			return stride;
+		}
+
+		/**
+		 * Enables decoding with several grabbers in parallel, each working on a
+		 * different stretch of the movie between key frames. This pays off when
+		 * reading the whole movie in sequence, e.g. via {@code ImgOpener}, but
+		 * holds more decoded frames in memory than {@link #setPrefetchDepth}. It is
+		 * not used when a {@link #setStride stride} other than 1 is set.
+		 *
+		 * @param threads the number of parallel decoders; 1 disables parallel
+		 *          decoding
+		 */
+		public synchronized void setDecoderThreads(final int threads) {
+			stopDecodingAhead();
+			decoderThreads = threads;
+		}
+
+		public int getDecoderThreads() {
+			return decoderThreads;
+		}
+
+		private MovieIndex createIndex(final String path, final Metadata meta) {
+			try {
+				final MovieIndexCache cache = MovieIndexCache.getDefault();
+				final MovieIndex cached = cache == null ? null : cache.load(path);
+				if (cached != null) return cached;
+				// the Parser closed its context, so the movie is opened again here
+				final MovieIndex index = MovieIndex.scan(path, meta.getProbeSize(),
+					meta.getAnalyzeDuration());
+				if (cache != null) cache.store(path, index);
+				return index;
+			} catch (IOException e) {
+				log.warn("Could not index " + path + "; seeking by frame rate", e);
+				final long frameCount = meta.get(0).getAxisLength(Axes.TIME);
+				return MovieIndex.fromFrameRate((int) frameCount, meta.getFrameRate());
+			}
+		}
+
 		@Override
-		public void close() throws IOException {
-			if (grabber == null) return;
+		public synchronized void close() throws IOException {
+			final DecoderPool current = pool;
+			if (current == null) return;
+			stopDecodingAhead();
+			final DecoderPool[] reducedLevels;
+			synchronized (poolLock) {
+				// readers still holding the pools fail to acquire new decoders
+				pool = null;
+				reducedLevels = reducedPools;
+				reducedPools = null;
+			}
 			try {
-				grabber.stop();
-				grabber.release();
+				synchronized (thumbLock) {
+					if (thumbDecoder != null) thumbDecoder.close();
+					thumbDecoder = null;
+				}
+				for (final DecoderPool reduced : reducedLevels) {
+					if (reduced != null) reduced.close();
+				}
+				current.close();
 			} catch (FrameGrabber.Exception e) {
 				throw new IOException(e);
+			} finally {
+				frameCache.clear();
 			}
-			grabber = null;
-			path = null;
 		}
 
 		@Override
-		public BufferedImagePlane openPlane(int imageIndex, long planeIndex,
-			BufferedImagePlane plane, Interval bounds) throws FormatException,
+		public ByteArrayPlane openPlane(int imageIndex, long planeIndex,
+			ByteArrayPlane plane, Interval bounds) throws FormatException,
 			IOException
 		{
 			return openPlane(imageIndex, planeIndex, plane, bounds, null);
 		}
 
 		@Override
-		public BufferedImagePlane openPlane(int imageIndex, long planeIndex,
-			BufferedImagePlane plane, Interval bounds, SCIFIOConfig config)
+		public ByteArrayPlane openPlane(int imageIndex, long planeIndex,
+			ByteArrayPlane plane, Interval bounds, SCIFIOConfig config)
 			throws FormatException, IOException
 		{
-			if (imageIndex != 0) {
+			checkPlaneIndex(imageIndex, planeIndex);
+			final int imageCount = getMetadata().getImageCount();
+			final ImageMetadata iMeta = getMetadata().get(imageIndex);
+			final byte[] data =
+				getData(plane, bounds, getMetadata().getColorMode());
+			try {
+				final long key = planeIndex * imageCount + imageIndex;
+				byte[] frame = frameCache.get(key);
+				if (frame == null && !readsAhead(imageIndex) &&
+					(frameCache.getMaxSize() == 0 ||
+						!SCIFIOMetadataTools.wholePlane(imageIndex, getMetadata(), bounds)))
+				{
+					// copy straight into the plane, and do not cache partial frames
+					decode(imageIndex, (int) planeIndex, iMeta, bounds, data, null, 0);
+					return plane;
+				}
+				if (frame == null) {
+					frame = readsAhead(imageIndex) ? decodeAhead((int) planeIndex)
+						: decode(imageIndex, (int) planeIndex);
+					frameCache.put(key, frame, frame.length);
+				}
+				copyRegion(ByteBuffer.wrap(frame), getRowLength(iMeta), iMeta, bounds,
+					data, null, 0);
+				return plane;
+			} catch (FrameGrabber.Exception e) {
+				throw new IOException(e);
+			}
+		}
+
+		/**
+		 * Decodes a region of a plane into a caller-supplied array, laid out like
+		 * the data of a {@link ByteArrayPlane}. Frames are copied straight from
+		 * the grabber's native buffer, which is reused across calls, and neither
+		 * the frame cache nor read-ahead is filled; so once warmed up, reading
+		 * planes in sequence this way allocates nothing per frame.
+		 *
+		 * @param imageIndex the image index
+		 * @param planeIndex the plane index
+		 * @param buffer the array to fill, starting at index 0
+		 * @param bounds the region to read, e.g. the whole plane
+		 */
+		public void readPlane(final int imageIndex, final long planeIndex,
+			final byte[] buffer, final Interval bounds) throws FormatException,
+			IOException
+		{
+			readPlane(imageIndex, planeIndex, bounds, buffer, null);
+		}
+
+		/**
+		 * Decodes a region of a plane into a caller-supplied buffer, e.g. a direct
+		 * one; see {@link #readPlane(int, long, byte[], Interval)}. The region is
+		 * written at the buffer's position, which is then advanced past it.
+		 *
+		 * @param imageIndex the image index
+		 * @param planeIndex the plane index
+		 * @param buffer the buffer to fill
+		 * @param bounds the region to read, e.g. the whole plane
+		 */
+		public void readPlane(final int imageIndex, final long planeIndex,
+			final ByteBuffer buffer, final Interval bounds) throws FormatException,
+			IOException
+		{
+			buffer.position(buffer.position() +
+				readPlane(imageIndex, planeIndex, bounds, null, buffer));
+		}
+
+		/**
+		 * @return the number of bytes written
+		 */
+		private int readPlane(final int imageIndex, final long planeIndex,
+			final Interval bounds, final byte[] array, final ByteBuffer buffer)
+			throws FormatException, IOException
+		{
+			checkPlaneIndex(imageIndex, planeIndex);
+			final ImageMetadata iMeta = getMetadata().get(imageIndex);
+			final long length =
+				getByteCount(bounds, getMetadata().getColorMode());
+			final int offset = array != null ? 0 : buffer.position();
+			final int capacity = array != null ? array.length : buffer.remaining();
+			if (length > capacity) {
+				throw new IllegalArgumentException("Buffer too small: " + capacity +
+					" < " + length);
+			}
+			try {
+				// a cache only filled by openPlane cannot hit; avoid boxing the key
+				final byte[] frame = frameCache.getFrameCount() == 0 ? null
+					: frameCache.get(planeIndex * getMetadata().getImageCount() +
+						imageIndex);
+				if (frame != null) {
+					copyRegion(ByteBuffer.wrap(frame), getRowLength(iMeta), iMeta, bounds,
+						array, buffer, offset);
+				} else {
+					decode(imageIndex, (int) planeIndex, iMeta, bounds, array, buffer,
+						offset);
+				}
+			} catch (FrameGrabber.Exception e) {
+				throw new IOException(e);
+			}
+			return (int) length;
+		}
+
+		/**
+		 * Decodes a plane and views it in place in the grabber's native memory,
+		 * without copying it. The view's dimensions follow the planar axes of the
+		 * metadata. The grabber is reserved for the lease until it is closed, so
+		 * leases should be short-lived; see {@link #setDecoderPoolSize(int)}.
+		 *
+		 * @param imageIndex the image index
+		 * @param planeIndex the plane index
+		 * @return the lease; close it when done with the frame
+		 */
+		public <T extends RealType<T> & NativeType<T>> FrameLease<T> leaseFrame(
+			final int imageIndex, final long planeIndex) throws FormatException,
+			IOException
+		{
+			checkPlaneIndex(imageIndex, planeIndex);
+			final ImageMetadata iMeta = getMetadata().get(imageIndex);
+			final long[] dimensions = new long[iMeta.getPlanarAxisCount()];
+			for (int d = 0; d < dimensions.length; d++) {
+				dimensions[d] = iMeta.getAxisLength(d);
+			}
+			final DecoderPool levelPool = getPool(imageIndex);
+			try {
+				final MovieDecoder decoder = levelPool.acquire((int) planeIndex);
+				try {
+					final IplImage image = decoder.decode((int) planeIndex);
+					return new FrameLease<T>(levelPool, decoder, decoder.getBuffer(image),
+						image.widthStep(), getRowLength(iMeta), getMetadata().getColorMode()
+							.getBytesPerSample(), dimensions);
+				} catch (FrameGrabber.Exception e) {
+					levelPool.release(decoder);
+					throw e;
+				}
+			} catch (FrameGrabber.Exception e) {
+				throw new IOException(e);
+			}
+		}
+
+		/**
+		 * @return the decoders of the open movie
+		 */
+		private DecoderPool checkOpen() throws FormatException {
+			final DecoderPool current = pool;
+			if (current == null) throw new FormatException("No movie is open");
+			return current;
+		}
+
+		/**
+		 * @return the decoders of the open movie
+		 */
+		private DecoderPool checkPlaneIndex(final int imageIndex,
+			final long planeIndex) throws FormatException
+		{
+			final DecoderPool current = checkOpen();
+			if (imageIndex < 0 || imageIndex >= getMetadata().getImageCount()) {
 				throw new IllegalArgumentException("Illegal image index: " + imageIndex);
 			}
-			if (planeIndex != nextPlaneIndex) {
-				throw new UnsupportedOperationException(
-						"Out-of-sequence plane index: " + planeIndex
-						+ " (expected: " + nextPlaneIndex + ")");
+			if (planeIndex < 0 || planeIndex >= current.getIndex().getFrameCount()) {
+				throw new FormatException("Invalid plane index: " + planeIndex);
 			}
+			return current;
+		}
+
+		/**
+		 * Opens a thumbnail of the key frame at or before the given plane. Only
+		 * that key frame is decoded, and it is scaled down while converting it.
+		 */
+		@Override
+		public ByteArrayPlane openThumbPlane(final int imageIndex,
+			final long planeIndex) throws FormatException, IOException
+		{
+			final DecoderPool current = checkPlaneIndex(imageIndex, planeIndex);
+			final MovieIndex index = current.getIndex();
+			final ImageMetadata iMeta = getMetadata().get(imageIndex);
+			final int width = (int) iMeta.getThumbSizeX();
+			final int height = (int) iMeta.getThumbSizeY();
+			final ByteArrayPlane plane =
+				createPlane(getPlanarInterval(iMeta, width, height));
 			try {
-				final BufferedImage image = grabber.grab().getBufferedImage();
-				nextPlaneIndex++;
-				plane.setData(AWTImageTools.getSubimage(image, false, //
-					(int) bounds.min(0), (int) bounds.min(1), //
-					(int) bounds.max(0), (int) bounds.max(1)));
-				return plane;
+				synchronized (thumbLock) {
+					if (thumbDecoder == null) {
+						thumbDecoder =
+							MovieDecoder.open(current.getPath(), index,
+								current.getColorMode(), width, height);
+					}
+					final int keyFrame = index.getKeyFrameBefore((int) planeIndex);
+					plane.setData(FrameCopier.toBytes(
+						thumbDecoder.decode(keyFrame), current.getColorMode()));
+				}
 			} catch (FrameGrabber.Exception e) {
 				throw new IOException(e);
 			}
+			return plane;
+		}
+
+		/**
+		 * Opens thumbnails of key frames spread evenly over the movie, e.g. for a
+		 * catalog.
+		 *
+		 * @param imageIndex the image index
+		 * @param count the desired number of thumbnails
+		 * @return at most {@code count} thumbnails, in temporal order
+		 * @throws FormatException if no movie is open or the count is negative
+		 */
+		public List<ByteArrayPlane> openOverview(final int imageIndex,
+			final int count) throws FormatException, IOException
+		{
+			final DecoderPool current = checkOpen();
+			if (count < 0) {
+				throw new FormatException("Invalid thumbnail count: " + count);
+			}
+			final List<ByteArrayPlane> planes = new ArrayList<ByteArrayPlane>();
+			for (final int keyFrame : current.getIndex().getKeyFrames(count)) {
+				planes.add(openThumbPlane(imageIndex, keyFrame));
+			}
+			return planes;
+		}
+
+		/**
+		 * @param imageIndex the image index
+		 * @return whether {@link #openPlane} decodes the planes of the image
+		 *         ahead, as configured via {@link #setPrefetchDepth(int)} and
+		 *         {@link #setDecoderThreads(int)}
+		 */
+		public boolean readsAhead(final int imageIndex) {
+			return imageIndex == 0 &&
+				(prefetchDepth > 0 || decoderThreads > 1 && stride == 1);
+		}
+
+		/**
+		 * Decodes a whole frame.
+		 */
+		private byte[] decode(final int imageIndex, final int frame)
+			throws IOException, FrameGrabber.Exception
+		{
+			final DecoderPool levelPool = getPool(imageIndex);
+			final MovieDecoder decoder = levelPool.acquire(frame);
+			try {
+				return FrameCopier.toBytes(decoder.decode(frame),
+					levelPool.getColorMode());
+			} finally {
+				levelPool.release(decoder);
+			}
+		}
+
+		/**
+		 * Decodes a frame, copying only the given region out of the grabber's
+		 * buffer into either an array or a buffer.
+		 */
+		private void decode(final int imageIndex, final int frame,
+			final ImageMetadata iMeta, final Interval bounds, final byte[] array,
+			final ByteBuffer buffer, final int offset) throws IOException,
+			FrameGrabber.Exception
+		{
+			final DecoderPool levelPool = getPool(imageIndex);
+			final MovieDecoder decoder = levelPool.acquire(frame);
+			try {
+				final IplImage image = decoder.decode(frame);
+				copyRegion(decoder.getBuffer(image), image.widthStep(), iMeta, bounds,
+					array, buffer, offset);
+			} finally {
+				levelPool.release(decoder);
+			}
+		}
+
+		/**
+		 * Returns the decoders for the given resolution level; those for reduced
+		 * levels scale the frames while converting them. This does not wait for
+		 * reading ahead, which holds the reader's monitor.
+		 */
+		private DecoderPool getPool(final int imageIndex) throws IOException {
+			final DecoderPool current = pool;
+			if (current == null) throw new IOException("No movie is open");
+			if (imageIndex == 0) return current;
+			synchronized (poolLock) {
+				final DecoderPool[] reduced = reducedPools;
+				if (reduced == null) throw new IOException("No movie is open");
+				if (reduced[imageIndex] == null) {
+					final ImageMetadata iMeta = getMetadata().get(imageIndex);
+					reduced[imageIndex] = new DecoderPool(current.getPath(),
+						current.getIndex(), current.getColorMode(),
+						(int) iMeta.getAxisLength(Axes.X),
+						(int) iMeta.getAxisLength(Axes.Y), poolSize);
+				}
+				return reduced[imageIndex];
+			}
+		}
+
+		/**
+		 * Reading ahead only makes sense for a single consumer, so concurrent
+		 * callers take turns here.
+		 */
+		private synchronized byte[] decodeAhead(final int frame)
+			throws IOException, FrameGrabber.Exception
+		{
+			if (sequence == null || sequence.getNextFrame() != frame) {
+				stopDecodingAhead();
+				sequence = prefetchDepth > 0 && (decoderThreads <= 1 || stride > 1)
+					? prefetch(frame) : decodeInParallel(frame);
+			}
+			try {
+				return sequence.take();
+			} catch (IOException e) {
+				stopDecodingAhead();
+				throw e;
+			}
+		}
+
+		private FrameSequence<byte[]> prefetch(final int frame)
+			throws IOException, FrameGrabber.Exception
+		{
+			final DecoderPool current = getPool(0);
+			final MovieDecoder decoder = current.acquire(frame);
+			sequenceDecoder = decoder;
+			return new FramePrefetcher<byte[]>(new FramePrefetcher.Source<byte[]>() {
+
+				@Override
+				public byte[] decode(final int frame) throws IOException {
+					try {
+						return FrameCopier.toBytes(decoder.decode(frame),
+							current.getColorMode());
+					} catch (FrameGrabber.Exception e) {
+						throw new IOException(e);
+					}
+				}
+			}, frame, stride, current.getIndex().getFrameCount(), prefetchDepth);
+		}
+
+		private FrameSequence<byte[]> decodeInParallel(final int frame)
+			throws IOException
+		{
+			final DecoderPool current = getPool(0);
+			return new ParallelFrameDecoder<byte[]>(current.getPath(),
+				current.getIndex(), current.getColorMode(), frame, decoderThreads,
+				new ParallelFrameDecoder.Converter<byte[]>() {
+
+					@Override
+					public byte[] convert(final IplImage image) {
+						return FrameCopier.toBytes(image, current.getColorMode());
+					}
+				});
+		}
+
+		private void stopDecodingAhead() {
+			if (sequence != null) {
+				sequence.stop();
+				sequence = null;
+			}
+			if (sequenceDecoder != null) {
+				// close stops reading ahead before it resets the pool
+				pool.release(sequenceDecoder);
+				sequenceDecoder = null;
+			}
+		}
+
+		/**
+		 * Returns the plane's array, replacing it if it is too small for the
+		 * given region.
+		 */
+		private static byte[] getData(final ByteArrayPlane plane,
+			final Interval bounds, final ColorMode mode)
+		{
+			final long length = getByteCount(bounds, mode);
+			byte[] data = plane.getData();
+			if (data == null || data.length < length) {
+				data = new byte[(int) length];
+				plane.setData(data);
+			}
+			return data;
+		}
+
+		private static long getByteCount(final Interval bounds,
+			final ColorMode mode)
+		{
+			long length = mode.getBytesPerSample();
+			for (int d = 0; d < bounds.numDimensions(); d++) {
+				length *= bounds.dimension(d);
+			}
+			return length;
+		}
+
+		/**
+		 * @return the number of bytes per row of a cached frame, which has no
+		 *         padding
+		 */
+		private int getRowLength(final ImageMetadata iMeta) {
+			final ColorMode mode = getMetadata().getColorMode();
+			return (int) iMeta.getAxisLength(Axes.X) *
+				(mode.isPlanar() ? 1 : mode.getChannelCount()) *
+				mode.getBytesPerSample();
+		}
+
+		/**
+		 * Copies a region of a frame into either an array or a buffer; the axes
+		 * of the region are looked up in the metadata.
+		 */
+		private void copyRegion(final ByteBuffer source, final int stride,
+			final ImageMetadata iMeta, final Interval bounds, final byte[] array,
+			final ByteBuffer buffer, final int offset)
+		{
+			final int channels = (int) iMeta.getAxisLength(Axes.CHANNEL);
+			final int c = iMeta.getAxisIndex(Axes.CHANNEL);
+			final int x = iMeta.getAxisIndex(Axes.X);
+			final int y = iMeta.getAxisIndex(Axes.Y);
+			final int firstChannel = c < 0 ? 0 : (int) bounds.min(c);
+			final int channelCount = c < 0 ? channels : (int) bounds.dimension(c);
+			final int left = (int) bounds.min(x), top = (int) bounds.min(y);
+			final int width = (int) bounds.dimension(x);
+			final int height = (int) bounds.dimension(y);
+			final ColorMode mode = getMetadata().getColorMode();
+			final int bytes = mode.getBytesPerSample();
+			if (mode.isPlanar()) {
+				final int planeHeight = (int) iMeta.getAxisLength(Axes.Y);
+				if (array != null) {
+					FrameCopier.copyPlanarRegion(source, stride, planeHeight, bytes,
+						firstChannel, channelCount, left, top, width, height, array,
+						offset);
+				} else {
+					FrameCopier.copyPlanarRegion(source, stride, planeHeight, bytes,
+						firstChannel, channelCount, left, top, width, height, buffer,
+						offset);
+				}
+			} else if (array != null) {
+				FrameCopier.copyRegion(source, stride, channels, bytes, firstChannel,
+					channelCount, left, top, width, height, array, offset);
+			} else {
+				FrameCopier.copyRegion(source, stride, channels, bytes, firstChannel,
+					channelCount, left, top, width, height, buffer, offset);
+			}
+		}
+
+		/**
+		 * Builds the bounds of a whole plane with the given width and height.
+		 */
+		private static Interval getPlanarInterval(final ImageMetadata iMeta,
+			final long width, final long height)
+		{
+			final long[] dimensions = new long[iMeta.getPlanarAxisCount()];
+			for (int d = 0; d < dimensions.length; d++) {
+				dimensions[d] = iMeta.getAxisLength(d);
+			}
+			dimensions[iMeta.getAxisIndex(Axes.X)] = width;
+			dimensions[iMeta.getAxisIndex(Axes.Y)] = height;
+			return new FinalInterval(dimensions);
 		}
 	}
 }
@@ -0,0 +1,320 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import io.scif.FormatException;
+import io.scif.ImageMetadata;
+import io.scif.img.ImgIOException;
+import io.scif.img.ImgOpener;
+import io.scif.services.FormatService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.DiskCachedCellImgOptions.CacheType;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.scijava.Context;
+
+/**
+ * Opens movies as images, lazily if they are too large for the heap.
+ *
+ * Lazily opened movies are split into cells of whole frames along time, each
+ * spanning a group of pictures, so that a cell is decoded in one pass from its
+ * key frame. Decoded cells are kept in a bounded cache. If the Reader reads
+ * ahead, the frames following a cell are decoded in the background while the
+ * cell is processed.
+ *
+ * {@link ImgOpener} does not use this class, and always loads movies eagerly;
+ * call {@link #open(Context, String)} instead to have large movies opened
+ * lazily.
+ */
+public final class MovieImgLoader {
+
+	/** The default share of the heap a movie may take when loaded eagerly. */
+	public static final double DEFAULT_HEAP_FRACTION = 0.25;
+
+	/** The number of frames a lazily opened movie decodes ahead by default. */
+	public static final int DEFAULT_PREFETCH_DEPTH = 4;
+
+	/** Caps the frames per cell for large frames or long groups of pictures. */
+	private static final long MAX_CELL_BYTES = 64L << 20;
+
+	private MovieImgLoader() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Opens a movie, lazily if it takes more than
+	 * {@link #DEFAULT_HEAP_FRACTION} of the maximal heap.
+	 *
+	 * @param context the context providing SCIFIO's services
+	 * @param path the movie file
+	 * @return the opened movie; close it when done with the image
+	 */
+	public static MovieImg open(final Context context, final String path)
+		throws FormatException, IOException, ImgIOException
+	{
+		return open(context, path, DEFAULT_HEAP_FRACTION);
+	}
+
+	/**
+	 * Opens a movie: eagerly via {@link ImgOpener} if it fits into the given
+	 * share of the maximal heap, lazily otherwise, caching at most that share of
+	 * the heap in decoded cells and decoding
+	 * {@value #DEFAULT_PREFETCH_DEPTH} frames ahead.
+	 *
+	 * @param context the context providing SCIFIO's services
+	 * @param path the movie file
+	 * @param heapFraction the share of the maximal heap the movie may take
+	 * @return the opened movie; close it when done with the image, since a
+	 *         lazily opened one keeps its decoders open
+	 */
+	public static MovieImg open(final Context context, final String path,
+		final double heapFraction) throws FormatException, IOException,
+		ImgIOException
+	{
+		final MovieFormat format = context.getService(FormatService.class)
+			.getFormatFromClass(MovieFormat.class);
+		final MovieFormat.Reader reader = (MovieFormat.Reader) format.createReader();
+		reader.setSource(path);
+		final long budget = (long) (heapFraction * Runtime.getRuntime().maxMemory());
+		if (estimateSize(reader, 0) <= budget) {
+			// reuse the probed and indexed movie instead of parsing it again
+			try {
+				return new MovieImg(new ImgOpener(context).openImgs(reader).get(0),
+					null);
+			} finally {
+				reader.close();
+			}
+		}
+		try {
+			reader.setPrefetchDepth(DEFAULT_PREFETCH_DEPTH);
+			return new MovieImg(openLazy(reader, 0, budget), reader);
+		} catch (RuntimeException e) {
+			reader.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Estimates how many bytes an image of the movie takes when fully loaded.
+	 *
+	 * @param reader a Reader with an open movie
+	 * @param imageIndex the image index
+	 * @return the size of all planes of the image
+	 */
+	public static long estimateSize(final MovieFormat.Reader reader,
+		final int imageIndex)
+	{
+		return getPlaneSize(reader, imageIndex) *
+			reader.getIndex().getFrameCount();
+	}
+
+	/**
+	 * Wraps an image of a movie in a lazily loaded cell image.
+	 *
+	 * @param reader a Reader with an open movie; it must stay open while the
+	 *          image is in use
+	 * @param imageIndex the image index
+	 * @param maxCacheBytes the maximal number of bytes of decoded cells to keep
+	 * @return the image; its axes are the planar axes of the metadata, followed
+	 *         by {@link Axes#TIME}
+	 */
+	public static <T extends RealType<T> & NativeType<T>> ImgPlus<T> openLazy(
+		final MovieFormat.Reader reader, final int imageIndex,
+		final long maxCacheBytes)
+	{
+		final ImageMetadata iMeta = reader.getMetadata().get(imageIndex);
+		final int timeAxis = iMeta.getPlanarAxisCount();
+		final long[] dimensions = new long[timeAxis + 1];
+		final int[] cellDimensions = new int[timeAxis + 1];
+		final AxisType[] axes = new AxisType[timeAxis + 1];
+		for (int d = 0; d < timeAxis; d++) {
+			dimensions[d] = iMeta.getAxisLength(d);
+			cellDimensions[d] = (int) dimensions[d];
+			axes[d] = iMeta.getAxis(d).type();
+		}
+		final MovieIndex index = reader.getIndex();
+		dimensions[timeAxis] = index.getFrameCount();
+		axes[timeAxis] = Axes.TIME;
+
+		final long planeSize = getPlaneSize(reader, imageIndex);
+		cellDimensions[timeAxis] = (int) Math.max(1, Math.min(
+			index.getGopLength(), MAX_CELL_BYTES / planeSize));
+		final long cellSize = planeSize * cellDimensions[timeAxis];
+		final ReadOnlyCachedCellImgOptions options = ReadOnlyCachedCellImgOptions
+			.options().cellDimensions(cellDimensions).cacheType(CacheType.BOUNDED)
+			.maxCacheSize(Math.max(1, maxCacheBytes / cellSize));
+
+		final Interval planeBounds =
+			new FinalInterval(Arrays.copyOf(dimensions, timeAxis));
+		final CachedCellImg<T, ?> img = new ReadOnlyCachedCellImgFactory(options)
+			.create(dimensions, MovieImgLoader.<T> createType(reader),
+				new CellLoader<T>() {
+
+					@Override
+					public void load(final SingleCellArrayImg<T, ?> cell)
+						throws Exception
+					{
+						loadFrames(reader, imageIndex, planeBounds, (int) cell
+							.min(timeAxis), (int) cell.dimension(timeAxis), cell
+							.getStorageArray());
+					}
+				});
+		return new ImgPlus<T>(img, reader.getCurrentFile(), axes);
+	}
+
+	/**
+	 * Decodes consecutive frames into a cell's storage array. Unless the Reader
+	 * reads ahead, they are copied straight out of the grabber.
+	 */
+	private static void loadFrames(final MovieFormat.Reader reader,
+		final int imageIndex, final Interval planeBounds, final int firstFrame,
+		final int frameCount, final Object storage) throws FormatException,
+		IOException
+	{
+		if (storage instanceof byte[]) {
+			final ByteBuffer buffer = ByteBuffer.wrap((byte[]) storage);
+			for (int i = 0; i < frameCount; i++) {
+				readPlane(reader, imageIndex, firstFrame + i, buffer, planeBounds);
+			}
+			return;
+		}
+		final short[] samples = (short[]) storage;
+		final ByteBuffer buffer = ByteBuffer.allocate(2 * samples.length);
+		for (int i = 0; i < frameCount; i++) {
+			readPlane(reader, imageIndex, firstFrame + i, buffer, planeBounds);
+		}
+		buffer.flip();
+		buffer.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+	}
+
+	private static void readPlane(final MovieFormat.Reader reader,
+		final int imageIndex, final int frame, final ByteBuffer buffer,
+		final Interval planeBounds) throws FormatException, IOException
+	{
+		if (reader.readsAhead(imageIndex)) {
+			buffer.put(reader.openPlane(imageIndex, frame, planeBounds).getBytes());
+		} else {
+			reader.readPlane(imageIndex, frame, buffer, planeBounds);
+		}
+	}
+
+	private static long getPlaneSize(final MovieFormat.Reader reader,
+		final int imageIndex)
+	{
+		final ImageMetadata iMeta = reader.getMetadata().get(imageIndex);
+		long size = reader.getMetadata().getColorMode().getBytesPerSample();
+		for (int d = 0; d < iMeta.getPlanarAxisCount(); d++) {
+			size *= iMeta.getAxisLength(d);
+		}
+		return size;
+	}
+
+	/**
+	 * A movie opened by {@link MovieImgLoader#open}, together with the Reader a
+	 * lazily opened image loads its cells from.
+	 */
+	public static final class MovieImg implements Closeable {
+
+		private final ImgPlus<?> img;
+		private final MovieFormat.Reader reader;
+
+		private MovieImg(final ImgPlus<?> img, final MovieFormat.Reader reader) {
+			this.img = img;
+			this.reader = reader;
+		}
+
+		/**
+		 * @return the image; a lazily opened one must not be used after
+		 *         {@link #close()}
+		 */
+		public ImgPlus<?> getImg() {
+			return img;
+		}
+
+		/**
+		 * @return whether the image decodes its frames on demand
+		 */
+		public boolean isLazy() {
+			return reader != null;
+		}
+
+		/**
+		 * @return the Reader a lazily opened image loads from, e.g. to tune its
+		 *         decoders, or null if the image was loaded eagerly
+		 */
+		public MovieFormat.Reader getReader() {
+			return reader;
+		}
+
+		/**
+		 * Closes the decoders of a lazily opened image.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (reader != null) reader.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends RealType<T> & NativeType<T>> T createType(
+		final MovieFormat.Reader reader)
+	{
+		final Object type =
+			reader.getMetadata().getColorMode().getBytesPerSample() == 1
+				? new UnsignedByteType() : new UnsignedShortType();
+		return (T) type;
+	}
+
+}
@@ -0,0 +1,366 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import static org.bytedeco.javacpp.avcodec.AV_PKT_FLAG_KEY;
+import static org.bytedeco.javacpp.avcodec.av_free_packet;
+import static org.bytedeco.javacpp.avformat.av_read_frame;
+import static org.bytedeco.javacpp.avformat.avformat_close_input;
+import static org.bytedeco.javacpp.avutil.AV_NOPTS_VALUE;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.bytedeco.javacpp.avcodec.AVPacket;
+import org.bytedeco.javacpp.avformat.AVFormatContext;
+import org.bytedeco.javacpp.avformat.AVStream;
+import org.bytedeco.javacpp.avutil.AVRational;
+
+/**
+ * The presentation time stamps, packet sizes and key frames of a movie's video
+ * stream.
+ *
+ * The index is built by demuxing the container without decoding anything, so
+ * it also yields the exact number of frames. It allows seeking to the key
+ * frame preceding any given frame so that only the frames of a single group of
+ * pictures need to be decoded.
+ */
+public final class MovieIndex {
+
+	private final long[] timestamps;
+	private final int[] keyFrames;
+	private final int[] packetSizes;
+
+	/**
+	 * Constructs an index from the given time stamps and key frames.
+	 *
+	 * @param timestamps the presentation time stamps of the frames, in
+	 *          microseconds, in ascending order
+	 * @param keyFrames the frame numbers of the key frames, in ascending order
+	 */
+	public MovieIndex(final long[] timestamps, final int[] keyFrames) {
+		this(timestamps, keyFrames, null);
+	}
+
+	/**
+	 * Constructs an index from the given time stamps, key frames and packet
+	 * sizes.
+	 *
+	 * @param timestamps the presentation time stamps of the frames, in
+	 *          microseconds, in ascending order
+	 * @param keyFrames the frame numbers of the key frames, in ascending order
+	 * @param packetSizes the compressed size of each frame, in bytes, or null if
+	 *          unknown
+	 */
+	public MovieIndex(final long[] timestamps, final int[] keyFrames,
+		final int[] packetSizes)
+	{
+		this.timestamps = timestamps;
+		this.keyFrames = keyFrames;
+		this.packetSizes = packetSizes;
+	}
+
+	/**
+	 * Constructs an index for a constant frame rate when the container offers
+	 * nothing better; only the first frame is known to be a key frame.
+	 *
+	 * @param frameCount the number of frames
+	 * @param frameRate the frames per second
+	 * @return the index
+	 */
+	public static MovieIndex fromFrameRate(final int frameCount,
+		final double frameRate)
+	{
+		final long[] timestamps = new long[frameCount];
+		for (int i = 0; i < frameCount; i++) {
+			timestamps[i] = Math.round(i * 1000000L / frameRate);
+		}
+		return new MovieIndex(timestamps, new int[] { 0 });
+	}
+
+	/**
+	 * Builds the index by reading all packets of the first video stream.
+	 *
+	 * @param path the movie file
+	 * @return the index
+	 * @throws IOException if the file could not be demuxed
+	 */
+	public static MovieIndex scan(final String path) throws IOException {
+		return scan(path, 0, 0);
+	}
+
+	/**
+	 * Builds the index by reading all packets of the first video stream,
+	 * limiting how much is read to detect the streams.
+	 *
+	 * @param path the movie file
+	 * @param probeSize see {@link MovieProbe#open(String, long, long)}
+	 * @param analyzeDuration see {@link MovieProbe#open(String, long, long)}
+	 * @return the index
+	 * @throws IOException if the file could not be demuxed
+	 */
+	public static MovieIndex scan(final String path, final long probeSize,
+		final long analyzeDuration) throws IOException
+	{
+		final AVFormatContext context =
+			MovieProbe.open(path, probeSize, analyzeDuration);
+		try {
+			return scan(context);
+		} finally {
+			avformat_close_input(context);
+		}
+	}
+
+	/**
+	 * Builds the index by reading the remaining packets of the first video
+	 * stream. Packets buffered while probing the context are returned first, so
+	 * a freshly probed context is indexed from the start.
+	 *
+	 * @param context a context returned by {@link MovieProbe#open}
+	 * @return the index
+	 * @throws IOException if there is no video stream
+	 */
+	public static MovieIndex scan(final AVFormatContext context)
+		throws IOException
+	{
+		final int streamIndex = MovieProbe.findVideoStream(context);
+		final AVStream stream = context.streams(streamIndex);
+		final AVRational timeBase = stream.time_base();
+		final long startTime =
+			context.start_time() == AV_NOPTS_VALUE ? 0 : context.start_time();
+
+		long[] timestamps = new long[1024];
+		int[] sizes = new int[1024];
+		boolean[] isKey = new boolean[1024];
+		int count = 0;
+		final AVPacket packet = new AVPacket();
+		while (av_read_frame(context, packet) >= 0) {
+			try {
+				if (packet.stream_index() != streamIndex) continue;
+				final long pts =
+					packet.pts() != AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+				if (pts == AV_NOPTS_VALUE) continue;
+				if (count == timestamps.length) {
+					timestamps = Arrays.copyOf(timestamps, 2 * count);
+					sizes = Arrays.copyOf(sizes, 2 * count);
+					isKey = Arrays.copyOf(isKey, 2 * count);
+				}
+				// same rounding as FFmpegFrameGrabber's time stamps
+				timestamps[count] = 1000000L * pts * timeBase.num() /
+					timeBase.den() - startTime;
+				sizes[count] = packet.size();
+				isKey[count] = (packet.flags() & AV_PKT_FLAG_KEY) != 0;
+				count++;
+			} finally {
+				av_free_packet(packet);
+			}
+		}
+		return fromPackets(timestamps, sizes, isKey, count);
+	}
+
+	/**
+	 * Packets arrive in decoding order, which differs from presentation order
+	 * only within a few frames (B-frame reordering), so an insertion sort is
+	 * effectively linear here.
+	 */
+	private static MovieIndex fromPackets(final long[] timestamps,
+		final int[] sizes, final boolean[] isKey, final int count)
+	{
+		for (int i = 1; i < count; i++) {
+			final long timestamp = timestamps[i];
+			final int size = sizes[i];
+			final boolean key = isKey[i];
+			int j = i - 1;
+			while (j >= 0 && timestamps[j] > timestamp) {
+				timestamps[j + 1] = timestamps[j];
+				sizes[j + 1] = sizes[j];
+				isKey[j + 1] = isKey[j];
+				j--;
+			}
+			timestamps[j + 1] = timestamp;
+			sizes[j + 1] = size;
+			isKey[j + 1] = key;
+		}
+		int keyCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (isKey[i]) keyCount++;
+		}
+		final int[] keyFrames = new int[keyCount];
+		for (int i = 0, j = 0; i < count; i++) {
+			if (isKey[i]) keyFrames[j++] = i;
+		}
+		return new MovieIndex(Arrays.copyOf(timestamps, count), keyFrames, Arrays
+			.copyOf(sizes, count));
+	}
+
+	/**
+	 * @return the number of frames in the video stream
+	 */
+	public int getFrameCount() {
+		return timestamps.length;
+	}
+
+	/**
+	 * @param frame the frame number
+	 * @return the presentation time stamp of the frame, in microseconds
+	 */
+	public long getTimestamp(final int frame) {
+		return timestamps[frame];
+	}
+
+	/**
+	 * @return whether the index knows the compressed size of each frame
+	 */
+	public boolean hasPacketSizes() {
+		return packetSizes != null;
+	}
+
+	/**
+	 * @param frame the frame number
+	 * @return the size of the frame's compressed packet, in bytes, or 0 if
+	 *         unknown
+	 */
+	public int getPacketSize(final int frame) {
+		return packetSizes == null ? 0 : packetSizes[frame];
+	}
+
+	/**
+	 * Finds the frame that is displayed at the given time.
+	 *
+	 * @param timestamp the time, in microseconds since the start of the movie
+	 * @return the last frame whose time stamp is not after the given time, or 0
+	 *         if the time lies before the first frame
+	 */
+	public int getFrameAt(final long timestamp) {
+		final int i = Arrays.binarySearch(timestamps, timestamp);
+		if (i >= 0) return i;
+		final int insertion = -i - 1;
+		return insertion == 0 ? 0 : insertion - 1;
+	}
+
+	/**
+	 * @return the number of key frames
+	 */
+	public int getKeyFrameCount() {
+		return keyFrames.length;
+	}
+
+	/**
+	 * @param i the ordinal of the key frame
+	 * @return the frame number of the {@code i}-th key frame
+	 */
+	public int getKeyFrame(final int i) {
+		return keyFrames[i];
+	}
+
+	/**
+	 * Determines the most common distance between key frames, i.e. the length
+	 * of a group of pictures.
+	 *
+	 * @return the most common key frame interval, or the frame count if there is
+	 *         only one key frame
+	 */
+	public int getGopLength() {
+		if (keyFrames.length < 2) return Math.max(1, getFrameCount());
+		final int[] intervals = new int[keyFrames.length - 1];
+		for (int i = 0; i < intervals.length; i++) {
+			intervals[i] = keyFrames[i + 1] - keyFrames[i];
+		}
+		Arrays.sort(intervals);
+		int best = intervals[0], bestCount = 0;
+		for (int i = 0, j; i < intervals.length; i = j) {
+			for (j = i; j < intervals.length && intervals[j] == intervals[i]; j++) {
+				// count equal intervals
+			}
+			if (j - i > bestCount) {
+				best = intervals[i];
+				bestCount = j - i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Picks key frames spread evenly over the movie, e.g. for an overview.
+	 *
+	 * @param count the desired number of key frames
+	 * @return the frame numbers of at most {@code count} distinct key frames, in
+	 *         ascending order
+	 * @throws IllegalArgumentException if the count is negative
+	 */
+	public int[] getKeyFrames(final int count) {
+		if (count < 0) throw new IllegalArgumentException("Invalid count: " + count);
+		final int frameCount = getFrameCount();
+		final int[] result = new int[Math.min(count, keyFrames.length)];
+		int n = 0;
+		for (int i = 0; i < count && n < result.length; i++) {
+			final long target = (2L * i + 1) * frameCount / (2L * count);
+			final int keyFrame = getKeyFrameBefore((int) target);
+			if (n == 0 || result[n - 1] != keyFrame) result[n++] = keyFrame;
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * @param frame the frame number
+	 * @return whether decoding can start at the given frame
+	 */
+	public boolean isKeyFrame(final int frame) {
+		return Arrays.binarySearch(keyFrames, frame) >= 0;
+	}
+
+	/**
+	 * @param frame the frame number
+	 * @return the closest key frame at or before the given frame, or 0 if none
+	 *         is known
+	 */
+	public int getKeyFrameBefore(final int frame) {
+		final int i = Arrays.binarySearch(keyFrames, frame);
+		if (i >= 0) return frame;
+		final int insertion = -i - 1;
+		return insertion == 0 ? 0 : keyFrames[insertion - 1];
+	}
+
+	/**
+	 * @param from the current frame number
+	 * @param to the target frame number
+	 * @return whether there is a key frame in the range {@code (from, to]}
+	 */
+	public boolean hasKeyFrameBetween(final int from, final int to) {
+		return to > from && getKeyFrameBefore(to) > from;
+	}
+
+}
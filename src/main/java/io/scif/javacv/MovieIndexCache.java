@@ -0,0 +1,291 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An on-disk cache of {@link MovieIndex}es, so that movies need to be scanned
+ * only once.
+ *
+ * Each movie's index is stored in its own file in the cache directory, in a
+ * compact binary format that is memory-mapped when loading. The entry records
+ * the movie's size and modification time, and is discarded as soon as either
+ * no longer matches.
+ *
+ * The default cache lives in {@code ~/.scifio/javacv/index}; set the system
+ * property {@value #CACHE_DIR_PROPERTY} to use a different directory, or to
+ * the empty string to disable caching. Once the cache grows beyond
+ * {@value #CACHE_SIZE_PROPERTY} bytes, the least recently used entries are
+ * deleted; entries unused for a month are deleted, too.
+ */
+public final class MovieIndexCache {
+
+	public static final String CACHE_DIR_PROPERTY = "scifio.javacv.cacheDir";
+
+	/**
+	 * The system property bounding the size of each on-disk cache, in bytes;
+	 * see {@link #DEFAULT_CACHE_SIZE}.
+	 */
+	public static final String CACHE_SIZE_PROPERTY = "scifio.javacv.cacheSize";
+
+	/**
+	 * The system property that, if set to {@code true}, also stores the probed
+	 * metadata of movies below the cache root, so that other processes can skip
+	 * probing them, too. Without it, probes are only cached in memory.
+	 */
+	public static final String PROBE_CACHE_PROPERTY =
+		"scifio.javacv.probeCache";
+
+	/** The default bound of each on-disk cache: 256 MiB. */
+	public static final long DEFAULT_CACHE_SIZE = 256L << 20;
+
+	private static final int MAGIC = 0x534a5649; // "SJVI"
+	private static final int VERSION = 2;
+	private static final String SUFFIX = ".idx";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File directory;
+
+	/**
+	 * @param directory the directory holding the cached indexes
+	 */
+	public MovieIndexCache(final File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the cache configured via {@value #CACHE_DIR_PROPERTY}, or null if
+	 *         caching is disabled
+	 */
+	public static MovieIndexCache getDefault() {
+		final File root = getCacheRoot();
+		return root == null ? null : new MovieIndexCache(new File(root, "index"));
+	}
+
+	/**
+	 * @return the root of all scifio-javacv caches, or null if caching is
+	 *         disabled
+	 */
+	static File getCacheRoot() {
+		final String property = System.getProperty(CACHE_DIR_PROPERTY);
+		if (property == null) {
+			return new File(System.getProperty("user.home"), ".scifio" +
+				File.separator + "javacv");
+		}
+		return property.isEmpty() ? null : new File(property);
+	}
+
+	/**
+	 * @return the maximal size of each on-disk cache, in bytes
+	 */
+	static long getCacheSize() {
+		return Long.getLong(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Returns the index of the given movie, scanning and caching it if
+	 * necessary.
+	 *
+	 * @param path the movie file
+	 * @return the index
+	 * @throws IOException if the movie could not be scanned
+	 */
+	public MovieIndex get(final String path) throws IOException {
+		final FileStamp stamp = FileStamp.of(path);
+		MovieIndex index = load(stamp);
+		if (index == null) {
+			index = MovieIndex.scan(path);
+			store(stamp, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Loads the cached index of the given movie.
+	 *
+	 * @param path the movie file
+	 * @return the index, or null if there is no up-to-date entry
+	 */
+	public MovieIndex load(final String path) {
+		try {
+			return load(FileStamp.of(path));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	MovieIndex load(final FileStamp stamp) {
+		final File file = getFile(stamp);
+		if (!file.isFile()) return null;
+		try {
+			final MovieIndex index = read(stamp, file);
+			if (index == null) file.delete();
+			else CacheFiles.touch(file);
+			return index;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the index of the given movie; failures are silently ignored since
+	 * the index can always be rebuilt.
+	 *
+	 * @param path the movie file
+	 * @param index the index
+	 */
+	public void store(final String path, final MovieIndex index) {
+		try {
+			store(FileStamp.of(path), index);
+		} catch (IOException e) {
+			// nothing to cache
+		}
+	}
+
+	void store(final FileStamp stamp, final MovieIndex index) {
+		final File file = getFile(stamp);
+		try {
+			CacheFiles.writeAtomically(file, new CacheFiles.Writer() {
+
+				@Override
+				public void write(final File file) throws IOException {
+					MovieIndexCache.write(stamp, index, file);
+				}
+			});
+			CacheFiles.bound(directory, SUFFIX, file, getCacheSize());
+		} catch (IOException e) {
+			// nothing cached
+		}
+	}
+
+	private File getFile(final FileStamp stamp) {
+		return new File(directory, stamp.getCacheName() + SUFFIX);
+	}
+
+	private static void write(final FileStamp stamp, final MovieIndex index,
+		final File file) throws IOException
+	{
+		final DataOutputStream out = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			final byte[] path = stamp.getPath().getBytes(UTF8);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(stamp.getSize());
+			out.writeLong(stamp.getLastModified());
+			out.writeInt(path.length);
+			out.write(path);
+			out.writeInt(index.getFrameCount());
+			out.writeInt(index.getKeyFrameCount());
+			out.writeBoolean(index.hasPacketSizes());
+			for (int i = 0; i < index.getFrameCount(); i++) {
+				out.writeLong(index.getTimestamp(i));
+			}
+			for (int i = 0; i < index.getKeyFrameCount(); i++) {
+				out.writeInt(index.getKeyFrame(i));
+			}
+			if (index.hasPacketSizes()) {
+				for (int i = 0; i < index.getFrameCount(); i++) {
+					out.writeInt(index.getPacketSize(i));
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the index, or null if the entry is stale or corrupt
+	 */
+	private static MovieIndex read(final FileStamp stamp, final File file)
+		throws IOException
+	{
+		final FileChannel channel =
+			FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			final ByteBuffer buffer =
+				channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+			if (buffer.getLong() != stamp.getSize()) return null;
+			if (buffer.getLong() != stamp.getLastModified()) return null;
+			// check each count before allocating anything for it
+			final int pathLength = buffer.getInt();
+			if (pathLength < 0 || pathLength > buffer.remaining()) return null;
+			final byte[] path = new byte[pathLength];
+			buffer.get(path);
+			if (!stamp.getPath().equals(new String(path, UTF8))) return null;
+
+			final int frameCount = buffer.getInt();
+			final int keyFrameCount = buffer.getInt();
+			final boolean hasPacketSizes = buffer.get() != 0;
+			final long size = (hasPacketSizes ? 12L : 8L) * frameCount + 4L *
+				keyFrameCount;
+			if (frameCount < 0 || keyFrameCount < 0 || size != buffer.remaining()) {
+				return null;
+			}
+			final long[] timestamps = new long[frameCount];
+			final int[] keyFrames = new int[keyFrameCount];
+			final int[] packetSizes = hasPacketSizes ? new int[frameCount] : null;
+			buffer.asLongBuffer().get(timestamps);
+			buffer.position(buffer.position() + 8 * timestamps.length);
+			buffer.asIntBuffer().get(keyFrames);
+			if (packetSizes != null) {
+				buffer.position(buffer.position() + 4 * keyFrames.length);
+				buffer.asIntBuffer().get(packetSizes);
+			}
+			return new MovieIndex(timestamps, keyFrames, packetSizes);
+		} catch (BufferUnderflowException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		} catch (NegativeArraySizeException e) {
+			return null;
+		} finally {
+			channel.close();
+		}
+	}
+
+}
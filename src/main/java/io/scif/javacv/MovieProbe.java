@@ -0,0 +1,256 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import static org.bytedeco.javacpp.avformat.avformat_close_input;
+import static org.bytedeco.javacpp.avformat.avformat_find_stream_info;
+import static org.bytedeco.javacpp.avformat.avformat_open_input;
+import static org.bytedeco.javacpp.avutil.AVMEDIA_TYPE_VIDEO;
+import static org.bytedeco.javacpp.avutil.av_dict_free;
+import static org.bytedeco.javacpp.avutil.av_dict_set;
+import static org.bytedeco.javacpp.avutil.av_get_pix_fmt_name;
+import static org.bytedeco.javacpp.avutil.av_pix_fmt_desc_get;
+
+import java.io.IOException;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacpp.avcodec.AVCodecContext;
+import org.bytedeco.javacpp.avformat.AVFormatContext;
+import org.bytedeco.javacpp.avformat.AVStream;
+import org.bytedeco.javacpp.avutil.AVDictionary;
+import org.bytedeco.javacpp.avutil.AVPixFmtDescriptor;
+import org.bytedeco.javacpp.avutil.AVRational;
+
+/**
+ * The properties of a movie's video stream, as read from the container and
+ * codec headers without a grabber and without decoding a frame.
+ */
+final class MovieProbe {
+
+	private final int width, height;
+	private final double frameRate;
+	private final int frameCount;
+	private final String pixelFormat;
+	private final int bitDepth;
+	private final int chromaShiftX, chromaShiftY;
+
+	MovieProbe(final int width, final int height,
+		final double frameRate, final int frameCount, final String pixelFormat,
+		final int bitDepth, final int chromaShiftX, final int chromaShiftY)
+	{
+		this.width = width;
+		this.height = height;
+		this.frameRate = frameRate;
+		this.frameCount = frameCount;
+		this.pixelFormat = pixelFormat;
+		this.bitDepth = bitDepth;
+		this.chromaShiftX = chromaShiftX;
+		this.chromaShiftY = chromaShiftY;
+	}
+
+	/**
+	 * Opens a movie's container and reads its stream information, with
+	 * FFmpeg's default probing limits.
+	 *
+	 * @param path the movie file
+	 * @return the context; close it with {@code avformat_close_input}
+	 * @throws IOException if the file could not be opened
+	 */
+	public static AVFormatContext open(final String path) throws IOException {
+		return open(path, 0, 0);
+	}
+
+	/**
+	 * Opens a movie's container and reads its stream information.
+	 *
+	 * @param path the movie file
+	 * @param probeSize the maximal number of bytes to read while detecting the
+	 *          streams, or 0 for FFmpeg's default
+	 * @param analyzeDuration the maximal stream duration to read while
+	 *          detecting the streams, in microseconds, or 0 for FFmpeg's
+	 *          default
+	 * @return the context; close it with {@code avformat_close_input}
+	 * @throws IOException if the file could not be opened
+	 */
+	public static AVFormatContext open(final String path, final long probeSize,
+		final long analyzeDuration) throws IOException
+	{
+		NativeLibraries.ensureLoaded();
+		final AVFormatContext context = new AVFormatContext(null);
+		final AVDictionary options = new AVDictionary(null);
+		try {
+			if (probeSize > 0) {
+				av_dict_set(options, "probesize", Long.toString(probeSize), 0);
+			}
+			if (analyzeDuration > 0) {
+				av_dict_set(options, "analyzeduration", Long
+					.toString(analyzeDuration), 0);
+			}
+			if (avformat_open_input(context, path, null, options) < 0) {
+				throw new IOException("Could not open " + path);
+			}
+		} finally {
+			av_dict_free(options);
+		}
+		if (avformat_find_stream_info(context, (PointerPointer) null) < 0) {
+			avformat_close_input(context);
+			throw new IOException("Could not find stream info in " + path);
+		}
+		return context;
+	}
+
+	/**
+	 * @param context an opened context
+	 * @return the index of the first video stream
+	 * @throws IOException if there is no video stream
+	 */
+	public static int findVideoStream(final AVFormatContext context)
+		throws IOException
+	{
+		for (int i = 0; i < context.nb_streams(); i++) {
+			if (context.streams(i).codec().codec_type() == AVMEDIA_TYPE_VIDEO) {
+				return i;
+			}
+		}
+		throw new IOException("No video stream");
+	}
+
+	/**
+	 * Reads the properties of the first video stream from the headers.
+	 *
+	 * @param path the movie file
+	 * @return the properties
+	 * @throws IOException if the file could not be opened
+	 */
+	public static MovieProbe probe(final String path) throws IOException {
+		final AVFormatContext context = open(path);
+		try {
+			return probe(context);
+		} finally {
+			avformat_close_input(context);
+		}
+	}
+
+	/**
+	 * Reads the properties of the first video stream from an opened context,
+	 * which can then be used for other things, e.g. indexing.
+	 *
+	 * @param context a context returned by {@link #open(String, long, long)}
+	 * @return the properties
+	 * @throws IOException if there is no video stream
+	 */
+	public static MovieProbe probe(final AVFormatContext context)
+		throws IOException
+	{
+		final AVStream stream = context.streams(findVideoStream(context));
+		final AVCodecContext codec = stream.codec();
+		// the same rate FFmpegFrameGrabber reports, if it is known
+		AVRational rate = stream.r_frame_rate();
+		if (rate.num() == 0 || rate.den() == 0) rate = stream.avg_frame_rate();
+		final double frameRate =
+			rate.num() == 0 || rate.den() == 0 ? 0 : (double) rate.num() /
+				rate.den();
+		final int frameCount =
+			stream.nb_frames() > 0 ? (int) stream.nb_frames()
+				: (int) (context.duration() * frameRate / 1000000L);
+		final BytePointer name = av_get_pix_fmt_name(codec.pix_fmt());
+		// unlike the name, the descriptor tells e.g. rgb565le (at most 6 bits
+		// per sample) from gray16le
+		final AVPixFmtDescriptor descriptor = av_pix_fmt_desc_get(codec.pix_fmt());
+		final boolean known = descriptor != null && !descriptor.isNull();
+		final int[] depths = new int[known ? descriptor.nb_components() : 0];
+		for (int i = 0; i < depths.length; i++) {
+			depths[i] = descriptor.comp(i).depth_minus1() + 1;
+		}
+		return new MovieProbe(codec.width(), codec.height(), frameRate,
+			frameCount, name == null || name.isNull() ? null : name.getString(),
+			ColorMode.getBitDepth(depths), known ? descriptor.log2_chroma_w() : 0,
+			known ? descriptor.log2_chroma_h() : 0);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public double getFrameRate() {
+		return frameRate;
+	}
+
+	/**
+	 * @return the number of frames according to the container, which may be an
+	 *         estimate; see {@link MovieIndex#getFrameCount()} for the exact one
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return the name of the decoder's pixel format, e.g. {@code yuv420p}, or
+	 *         null if unknown
+	 */
+	public String getPixelFormat() {
+		return pixelFormat;
+	}
+
+	/**
+	 * @return the number of significant bits per sample
+	 */
+	public int getBitDepth() {
+		return bitDepth;
+	}
+
+	/**
+	 * @return how many times the chroma planes are halved horizontally, e.g. 1
+	 *         for {@code yuv420p}
+	 */
+	public int getChromaShiftX() {
+		return chromaShiftX;
+	}
+
+	/**
+	 * @return how many times the chroma planes are halved vertically, e.g. 1
+	 *         for {@code yuv420p} and 0 for {@code yuv422p}
+	 */
+	public int getChromaShiftY() {
+		return chromaShiftY;
+	}
+
+}
@@ -0,0 +1,285 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A process-wide cache of {@link MovieProbe}s, so that scanning the same
+ * movies again does not open them at all.
+ *
+ * The most recently used entries are kept in memory; if a directory is given,
+ * each entry is also stored in its own small file there, bounded like the
+ * index cache. Like
+ * {@link MovieIndexCache}, entries are keyed by the movie's path, size and
+ * modification time, and are discarded as soon as the movie changes. Since
+ * tight probing limits may miss streams, the limits are part of the key, too.
+ */
+final class MovieProbeCache {
+
+	/** The default number of entries to keep in memory. */
+	static final int DEFAULT_MEMORY_SIZE = 4096;
+
+	private static final int MAGIC = 0x534a5650; // "SJVP"
+	private static final int VERSION = 4;
+	private static final String SUFFIX = ".probe";
+
+	private static MovieProbeCache defaultCache;
+
+	private final File directory;
+	private final Map<Key, MovieProbe> entries;
+
+	/**
+	 * @param directory the directory holding the stored entries, or null to
+	 *          keep them in memory only
+	 * @param memorySize the maximal number of entries to keep in memory
+	 */
+	MovieProbeCache(final File directory, final int memorySize) {
+		this.directory = directory;
+		entries = new LinkedHashMap<Key, MovieProbe>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+				final Map.Entry<Key, MovieProbe> eldest)
+			{
+				return size() > memorySize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cache shared by all readers of this process. Its entries are
+	 * only stored on disk, below {@value MovieIndexCache#CACHE_DIR_PROPERTY}, if
+	 * {@value MovieIndexCache#PROBE_CACHE_PROPERTY} is set.
+	 *
+	 * @return the cache
+	 */
+	static synchronized MovieProbeCache getDefault() {
+		final File root = Boolean.getBoolean(MovieIndexCache.PROBE_CACHE_PROPERTY)
+			? MovieIndexCache.getCacheRoot() : null;
+		final File directory = root == null ? null : new File(root, "probe");
+		if (defaultCache == null ||
+			!(directory == null ? defaultCache.directory == null : directory
+				.equals(defaultCache.directory)))
+		{
+			defaultCache = new MovieProbeCache(directory, DEFAULT_MEMORY_SIZE);
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * Looks up the probe of the given movie, in memory first.
+	 *
+	 * @param path the movie file
+	 * @param probeSize the probe size the movie is opened with
+	 * @param analyzeDuration the analyze duration the movie is opened with
+	 * @return the probe, or null if there is no up-to-date entry
+	 */
+	MovieProbe load(final String path, final long probeSize,
+		final long analyzeDuration)
+	{
+		final Key key;
+		try {
+			key = new Key(FileStamp.of(path), probeSize, analyzeDuration);
+		} catch (IOException e) {
+			return null;
+		}
+		synchronized (entries) {
+			final MovieProbe probe = entries.get(key);
+			if (probe != null) return probe;
+		}
+		if (directory == null) return null;
+		final File file = getFile(key);
+		if (!file.isFile()) return null;
+		final MovieProbe probe = read(key, file);
+		if (probe == null) {
+			file.delete();
+			return null;
+		}
+		CacheFiles.touch(file);
+		synchronized (entries) {
+			entries.put(key, probe);
+		}
+		return probe;
+	}
+
+	/**
+	 * Stores the probe of the given movie; failures to write it are silently
+	 * ignored since the movie can always be probed again.
+	 *
+	 * @param path the movie file
+	 * @param probeSize the probe size the movie was opened with
+	 * @param analyzeDuration the analyze duration the movie was opened with
+	 * @param probe the probe
+	 */
+	void store(final String path, final long probeSize,
+		final long analyzeDuration, final MovieProbe probe)
+	{
+		final Key key;
+		try {
+			key = new Key(FileStamp.of(path), probeSize, analyzeDuration);
+		} catch (IOException e) {
+			return;
+		}
+		synchronized (entries) {
+			entries.put(key, probe);
+		}
+		if (directory == null) return;
+		final File file = getFile(key);
+		try {
+			CacheFiles.writeAtomically(file, new CacheFiles.Writer() {
+
+				@Override
+				public void write(final File file) throws IOException {
+					MovieProbeCache.write(key, probe, file);
+				}
+			});
+			CacheFiles.bound(directory, SUFFIX, file,
+				MovieIndexCache.getCacheSize());
+		} catch (IOException e) {
+			// nothing cached
+		}
+	}
+
+	private File getFile(final Key key) {
+		final String limits = key.probeSize == 0 && key.analyzeDuration == 0
+			? "" : "-" + key.probeSize + "-" + key.analyzeDuration;
+		return new File(directory, key.stamp.getCacheName() + limits + SUFFIX);
+	}
+
+	private static void write(final Key key, final MovieProbe probe,
+		final File file) throws IOException
+	{
+		final FileStamp stamp = key.stamp;
+		final DataOutputStream out = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(stamp.getSize());
+			out.writeLong(stamp.getLastModified());
+			out.writeUTF(stamp.getPath());
+			out.writeLong(key.probeSize);
+			out.writeLong(key.analyzeDuration);
+			out.writeInt(probe.getWidth());
+			out.writeInt(probe.getHeight());
+			out.writeDouble(probe.getFrameRate());
+			out.writeInt(probe.getFrameCount());
+			out.writeInt(probe.getBitDepth());
+			out.writeInt(probe.getChromaShiftX());
+			out.writeInt(probe.getChromaShiftY());
+			out.writeBoolean(probe.getPixelFormat() != null);
+			if (probe.getPixelFormat() != null) out.writeUTF(probe.getPixelFormat());
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the probe, or null if the entry is stale or corrupt
+	 */
+	private static MovieProbe read(final Key key, final File file) {
+		final FileStamp stamp = key.stamp;
+		try {
+			final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+				if (in.readLong() != stamp.getSize()) return null;
+				if (in.readLong() != stamp.getLastModified()) return null;
+				if (!stamp.getPath().equals(in.readUTF())) return null;
+				if (in.readLong() != key.probeSize) return null;
+				if (in.readLong() != key.analyzeDuration) return null;
+				final int width = in.readInt();
+				final int height = in.readInt();
+				final double frameRate = in.readDouble();
+				final int frameCount = in.readInt();
+				final int bitDepth = in.readInt();
+				final int chromaShiftX = in.readInt();
+				final int chromaShiftY = in.readInt();
+				final String pixelFormat = in.readBoolean() ? in.readUTF() : null;
+				return new MovieProbe(width, height, frameRate, frameCount,
+					pixelFormat, bitDepth, chromaShiftX, chromaShiftY);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Identifies a probe by the version of the movie and the probing limits.
+	 */
+	private static final class Key {
+
+		private final FileStamp stamp;
+		private final long probeSize, analyzeDuration;
+
+		private Key(final FileStamp stamp, final long probeSize,
+			final long analyzeDuration)
+		{
+			this.stamp = stamp;
+			this.probeSize = probeSize;
+			this.analyzeDuration = analyzeDuration;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key)) return false;
+			final Key other = (Key) o;
+			return stamp.equals(other.stamp) && probeSize == other.probeSize &&
+				analyzeDuration == other.analyzeDuration;
+		}
+
+		@Override
+		public int hashCode() {
+			return stamp.hashCode() ^ (int) (probeSize * 31 + analyzeDuration);
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import static org.bytedeco.javacpp.avformat.av_register_all;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.avcodec;
+import org.bytedeco.javacpp.avdevice;
+import org.bytedeco.javacpp.avformat;
+import org.bytedeco.javacpp.avutil;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.swresample;
+import org.bytedeco.javacpp.swscale;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
+
+/**
+ * Loads the FFmpeg libraries on first use.
+ *
+ * Discovering {@link MovieFormat} as a plugin touches no native code; the
+ * libraries are only extracted and linked once a movie is probed, decoded or
+ * written. Applications that know they will read movies can call
+ * {@link #loadInBackground()} early to hide that cost, and can avoid extracting
+ * the libraries on every start of the JVM by setting the system property
+ * {@value #CACHE_PROPERTY} to {@code true}.
+ */
+public final class NativeLibraries {
+
+	/**
+	 * The system property enabling the persistent cache of extracted libraries
+	 * in the scifio-javacv cache directory. It switches off JavaCPP's own
+	 * extraction for the whole process, and only takes effect if no JavaCPP
+	 * class was used before.
+	 */
+	public static final String CACHE_PROPERTY = "scifio.javacv.nativeCache";
+
+	/**
+	 * The JavaCPP classes whose libraries JavaCV's FFmpeg grabber and recorder
+	 * load, dependencies first. With the cache enabled, JavaCPP loads nothing
+	 * itself, so every library they touch must be listed here.
+	 */
+	private static final Class<?>[] CLASSES = { avutil.class, swresample.class,
+		avcodec.class, avformat.class, swscale.class, avdevice.class,
+		opencv_core.class };
+
+	private static final LogService log = new StderrLogService();
+
+	private static boolean loaded;
+	private static FutureTask<Void> task;
+
+	private NativeLibraries() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Loads the libraries unless that happened already.
+	 *
+	 * @throws IOException if the libraries could not be loaded
+	 */
+	public static synchronized void ensureLoaded() throws IOException {
+		if (loaded) return;
+		if (NativeLibraryCache.isEnabled()) {
+			try {
+				NativeLibraryCache.load(CLASSES);
+			} catch (IOException e) {
+				log.warn("Could not use the native library cache; " +
+					"falling back to JavaCPP's extraction", e);
+			}
+		}
+		try {
+			// these only initialize the classes if the cache loaded the libraries
+			for (final Class<?> c : CLASSES) {
+				Loader.load(c);
+			}
+			av_register_all();
+		} catch (LinkageError e) {
+			throw new IOException("Could not load the FFmpeg libraries", e);
+		}
+		loaded = true;
+	}
+
+	/**
+	 * Starts loading the libraries on a background thread, if they are not
+	 * loaded or being loaded yet. If an earlier attempt failed, loading is
+	 * tried again.
+	 *
+	 * @return the completion of the loading; its {@code get} method throws the
+	 *         failure, if any
+	 */
+	public static synchronized Future<Void> loadInBackground() {
+		// a finished task without loaded libraries has failed
+		if (task == null || task.isDone() && !loaded) {
+			task = new FutureTask<Void>(new Callable<Void>() {
+
+				@Override
+				public Void call() throws IOException {
+					ensureLoaded();
+					return null;
+				}
+			});
+			final Thread thread = new Thread(task, "scifio-javacv-loader");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return task;
+	}
+
+	/**
+	 * @return whether the libraries have been loaded
+	 */
+	public static synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+}
@@ -0,0 +1,452 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.bytedeco.javacpp.annotation.Platform;
+import org.bytedeco.javacpp.annotation.Properties;
+
+/**
+ * A persistent cache of the native libraries bundled in the JavaCPP jars, so
+ * that they are extracted once instead of on every start of the JVM.
+ *
+ * The libraries that the given JavaCPP classes link against, as declared in
+ * their {@link Properties} annotations, and their JNI libraries are looked up
+ * in the jars on the class path. They are extracted into a subdirectory of the
+ * cache root whose name is derived from the jars' entries, so that upgrading
+ * the jars starts a new cache. Each file is verified against the CRC-32
+ * recorded in its jar, and the directory only becomes visible once all files
+ * are complete; the checksums are verified again whenever the cache is used,
+ * and a damaged cache is extracted anew. Afterwards, the libraries are
+ * loaded from there and JavaCPP's own extraction is switched off. Everything
+ * works offline.
+ *
+ * Since JavaCPP's extraction is switched off for the whole process, the
+ * cache must be enabled via {@value NativeLibraries#CACHE_PROPERTY}.
+ */
+final class NativeLibraryCache {
+
+	private static final String LOAD_LIBRARIES_PROPERTY =
+		"org.bytedeco.javacpp.loadlibraries";
+	private static final String MANIFEST = "MANIFEST";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private NativeLibraryCache() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * @return whether the cache is enabled and there is a cache root
+	 */
+	public static boolean isEnabled() {
+		return Boolean.getBoolean(NativeLibraries.CACHE_PROPERTY) &&
+			MovieIndexCache.getCacheRoot() != null;
+	}
+
+	/**
+	 * Extracts the libraries needed by the given classes unless they are
+	 * cached already, loads them, and tells JavaCPP not to load them again.
+	 *
+	 * @param classes the JavaCPP classes to be used
+	 * @throws IOException if a library was not found for this platform, or the
+	 *           libraries could not be extracted or loaded
+	 */
+	public static void load(final Class<?>... classes) throws IOException {
+		final String platform = getPlatform();
+		final Map<String, Source> available = findSources(platform);
+		final Map<String, Source> sources = new LinkedHashMap<String, Source>();
+		for (final Library library : getLibraries(platform, classes)) {
+			final String fileName = library.find(available.keySet());
+			if (fileName != null) {
+				sources.put(fileName, available.get(fileName));
+			} else if (!library.optional) {
+				throw new IOException("No native library " + library.name + " for " +
+					platform);
+			}
+		}
+		final File parent = new File(MovieIndexCache.getCacheRoot(), "natives");
+		final File directory =
+			new File(parent, platform + "-" + getVersion(sources));
+		if (!isComplete(directory)) {
+			// e.g. a library was damaged after it was extracted
+			if (directory.exists()) delete(directory);
+			extract(sources, parent, directory);
+		}
+		loadAll(directory, sources.keySet());
+		System.setProperty(LOAD_LIBRARIES_PROPERTY, "false");
+	}
+
+	/**
+	 * Collects the libraries the given classes need, dependencies first:
+	 * those declared for this platform by the classes and the classes they
+	 * inherit from, followed by each class's JNI library.
+	 */
+	static Set<Library> getLibraries(final String platform,
+		final Class<?>... classes)
+	{
+		final Set<Library> libraries = new LinkedHashSet<Library>();
+		for (final Class<?> c : classes) {
+			addLibraries(platform, c, libraries, new LinkedHashSet<Class<?>>());
+			libraries.add(new Library("jni" + c.getSimpleName(), false));
+		}
+		return libraries;
+	}
+
+	private static void addLibraries(final String platform, final Class<?> c,
+		final Set<Library> libraries, final Set<Class<?>> visited)
+	{
+		for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass()) {
+			if (!visited.add(k)) continue;
+			final Properties properties = k.getAnnotation(Properties.class);
+			if (properties == null) continue;
+			for (final Class<?> inherited : properties.inherit()) {
+				addLibraries(platform, inherited, libraries, visited);
+			}
+			for (final Platform p : properties.value()) {
+				if (!matches(platform, p.value())) continue;
+				for (final String name : p.preload()) {
+					libraries.add(new Library(name, true));
+				}
+				for (final String name : p.link()) {
+					libraries.add(new Library(name, false));
+				}
+			}
+		}
+	}
+
+	private static boolean matches(final String platform, final String[] names) {
+		if (names.length == 0) return true;
+		for (final String name : names) {
+			if (platform.startsWith(name)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the platform name in JavaCPP's notation, e.g.
+	 *         {@code linux-x86_64}
+	 */
+	static String getPlatform() {
+		final String override = System.getProperty("org.bytedeco.javacpp.platform");
+		if (override != null) return override;
+		final String name = System.getProperty("os.name").toLowerCase();
+		final String os = name.startsWith("windows") ? "windows" : name
+			.startsWith("mac os x") ? "macosx" : name.replaceAll("\\s", "");
+		final String arch = System.getProperty("os.arch").toLowerCase();
+		if (arch.equals("amd64") || arch.equals("x86-64")) {
+			return os + "-x86_64";
+		}
+		if (arch.matches("i[3-6]86") || arch.equals("x86")) return os + "-x86";
+		return os + "-" + arch;
+	}
+
+	/**
+	 * Collects the entries below {@code org/bytedeco/javacpp/<platform>/} of
+	 * all jars on the class path; the first jar wins for duplicate names.
+	 */
+	private static Map<String, Source> findSources(final String platform)
+		throws IOException
+	{
+		final String prefix = "org/bytedeco/javacpp/" + platform + "/";
+		final Map<String, Source> sources = new LinkedHashMap<String, Source>();
+		final Enumeration<URL> urls =
+			NativeLibraryCache.class.getClassLoader().getResources(prefix);
+		while (urls.hasMoreElements()) {
+			final URLConnection connection = urls.nextElement().openConnection();
+			if (!(connection instanceof JarURLConnection)) continue;
+			final JarFile jar = ((JarURLConnection) connection).getJarFile();
+			final Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				final JarEntry entry = entries.nextElement();
+				final String name = entry.getName();
+				if (entry.isDirectory() || !name.startsWith(prefix)) continue;
+				final String fileName = name.substring(prefix.length());
+				if (fileName.indexOf('/') >= 0 || sources.containsKey(fileName)) {
+					continue;
+				}
+				sources.put(fileName, new Source(jar, entry));
+			}
+		}
+		return sources;
+	}
+
+	/**
+	 * Derives the cache version from the names, sizes and checksums of the
+	 * libraries, which are read from the jars' directories without inflating
+	 * anything.
+	 */
+	private static String getVersion(final Map<String, Source> sources) {
+		final MessageDigest digest = CacheFiles.sha1();
+		for (final Map.Entry<String, Source> e : sources.entrySet()) {
+			final JarEntry entry = e.getValue().entry;
+			digest.update((e.getKey() + ":" + entry.getSize() + ":" +
+				entry.getCrc() + "\n").getBytes(UTF8));
+		}
+		return CacheFiles.toHex(digest.digest(), 8);
+	}
+
+	/**
+	 * Checks that all files listed in the manifest exist with the recorded
+	 * sizes and checksums.
+	 */
+	private static boolean isComplete(final File directory) throws IOException {
+		final File manifest = new File(directory, MANIFEST);
+		if (!manifest.isFile()) return false;
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+			new FileInputStream(manifest), UTF8));
+		try {
+			for (String line = reader.readLine(); line != null; line =
+				reader.readLine())
+			{
+				final String[] fields = line.split(" ", 3);
+				if (fields.length != 3) return false;
+				final File file = new File(directory, fields[2]);
+				if (file.length() != Long.parseLong(fields[1])) return false;
+				if (crc(file) != Long.parseLong(fields[0], 16)) return false;
+			}
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Extracts all libraries into a temporary directory, and renames it once
+	 * it is complete, so that concurrent processes never see a partial cache.
+	 */
+	private static void extract(final Map<String, Source> sources,
+		final File parent, final File directory) throws IOException
+	{
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create " + parent);
+		}
+		final File tmp =
+			Files.createTempDirectory(parent.toPath(), directory.getName() + ".tmp")
+				.toFile();
+		try {
+			final BufferedWriter manifest = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(new File(tmp, MANIFEST)), UTF8));
+			try {
+				for (final Map.Entry<String, Source> e : sources.entrySet()) {
+					final long crc = e.getValue().copyTo(new File(tmp, e.getKey()));
+					manifest.write(Long.toHexString(crc) + " " +
+						e.getValue().entry.getSize() + " " + e.getKey() + "\n");
+				}
+			} finally {
+				manifest.close();
+			}
+			try {
+				Files.move(tmp.toPath(), directory.toPath());
+			} catch (FileAlreadyExistsException e) {
+				// another process was faster
+			}
+		} finally {
+			if (tmp.exists()) delete(tmp);
+		}
+		if (!isComplete(directory)) {
+			throw new IOException("Incomplete native library cache: " + directory);
+		}
+	}
+
+	/**
+	 * Loads the given libraries of the directory. They are ordered by their
+	 * declared dependencies, but those are not always complete, so the
+	 * libraries that fail are retried until no further progress is made.
+	 */
+	private static void loadAll(final File directory,
+		final Set<String> fileNames) throws IOException
+	{
+		final List<File> pending = new ArrayList<File>();
+		for (final String fileName : fileNames) {
+			pending.add(new File(directory, fileName));
+		}
+		UnsatisfiedLinkError error = null;
+		while (!pending.isEmpty()) {
+			final List<File> failed = new ArrayList<File>();
+			for (final File file : pending) {
+				try {
+					System.load(file.getAbsolutePath());
+				} catch (UnsatisfiedLinkError e) {
+					failed.add(file);
+					error = e;
+				}
+			}
+			if (failed.size() == pending.size()) {
+				throw new IOException("Could not load " + failed, error);
+			}
+			pending.retainAll(failed);
+		}
+	}
+
+	private static long crc(final File file) throws IOException {
+		final CRC32 crc = new CRC32();
+		final InputStream in = new FileInputStream(file);
+		try {
+			final byte[] buffer = new byte[65536];
+			for (int count; (count = in.read(buffer)) >= 0;) {
+				crc.update(buffer, 0, count);
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (final File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * A library as declared in a {@link Platform} annotation, e.g.
+	 * {@code avutil@.52}.
+	 */
+	static final class Library {
+
+		private final String name;
+		private final boolean optional;
+		private final Pattern fileName;
+
+		Library(final String declaration, final boolean optional) {
+			final int at = declaration.indexOf('@');
+			name = at < 0 ? declaration : declaration.substring(0, at);
+			this.optional = optional;
+			// e.g. libavutil.so.52, libavutil.52.dylib or avutil-52.dll
+			fileName = Pattern.compile("(lib)?" + Pattern.quote(name) +
+				"([.-][0-9]+)*\\.(so|dylib|jnilib|dll)(\\.[0-9]+)*");
+		}
+
+		/**
+		 * @param fileNames the available files
+		 * @return the first file holding this library, or null if none does
+		 */
+		String find(final Set<String> fileNames) {
+			for (final String candidate : fileNames) {
+				if (fileName.matcher(candidate).matches()) return candidate;
+			}
+			return null;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			return o instanceof Library && name.equals(((Library) o).name);
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode();
+		}
+	}
+
+	/**
+	 * A library in a jar.
+	 */
+	private static final class Source {
+
+		private final JarFile jar;
+		private final JarEntry entry;
+
+		private Source(final JarFile jar, final JarEntry entry) {
+			this.jar = jar;
+			this.entry = entry;
+		}
+
+		/**
+		 * Copies the library, verifying its checksum.
+		 *
+		 * @return the CRC-32 of the copy
+		 */
+		private long copyTo(final File file) throws IOException {
+			final CRC32 crc = new CRC32();
+			final InputStream in = jar.getInputStream(entry);
+			try {
+				final OutputStream out = new FileOutputStream(file);
+				try {
+					final byte[] buffer = new byte[65536];
+					for (int count; (count = in.read(buffer)) >= 0;) {
+						out.write(buffer, 0, count);
+						crc.update(buffer, 0, count);
+					}
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			if (entry.getCrc() != -1 && crc.getValue() != entry.getCrc()) {
+				throw new IOException("Checksum mismatch for " + entry.getName() +
+					" in " + jar.getName());
+			}
+			return crc.getValue();
+		}
+	}
+
+}
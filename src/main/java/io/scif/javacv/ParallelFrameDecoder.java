@@ -0,0 +1,244 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacv.FrameGrabber;
+
+/**
+ * Decodes a movie with several grabbers in parallel.
+ *
+ * The frames from the first requested one to the end of the movie are split
+ * into segments starting at key frames, so that each segment can be decoded
+ * independently. Worker threads, each with its own grabber, take the segments
+ * in order, and the frames are handed out in sequence. To bound the memory
+ * used, only a limited number of segments is decoded ahead of the consumer,
+ * and each holds at most {@value #SEGMENT_CAPACITY} decoded frames; a worker
+ * waits when its segment is full. Since the consumer drains the segments in
+ * the order the workers take them, the worker of the current segment always
+ * makes progress.
+ *
+ * @param <T> the type of the decoded frames
+ */
+class ParallelFrameDecoder<T> implements FrameSequence<T> {
+
+	/** Segments are made at least this long, for intra-only codecs. */
+	private static final int MIN_SEGMENT_LENGTH = 16;
+
+	/** The maximal number of decoded frames queued per segment. */
+	private static final int SEGMENT_CAPACITY = 16;
+
+	/**
+	 * Copies a decoded frame; it is called from the worker threads.
+	 */
+	public interface Converter<T> {
+
+		T convert(IplImage image) throws IOException;
+	}
+
+	private final String path;
+	private final MovieIndex index;
+	private final ColorMode mode;
+	private final Converter<T> converter;
+	private final int[] segmentStarts;
+	private final List<BlockingQueue<Object>> segments;
+	private final AtomicInteger nextSegment = new AtomicInteger();
+	private final Semaphore segmentsInFlight;
+	private final List<Thread> workers = new ArrayList<Thread>();
+	private volatile boolean stopped;
+
+	private int currentSegment;
+	private int nextFrame;
+
+	/**
+	 * Starts decoding.
+	 *
+	 * @param path the movie file
+	 * @param index the index of the movie
+	 * @param mode the pixel layout of the decoded frames
+	 * @param firstFrame the number of the first frame to decode
+	 * @param threadCount the number of grabbers to decode with
+	 * @param converter copies the decoded frames
+	 */
+	public ParallelFrameDecoder(final String path, final MovieIndex index,
+		final ColorMode mode, final int firstFrame, final int threadCount,
+		final Converter<T> converter)
+	{
+		this.path = path;
+		this.index = index;
+		this.mode = mode;
+		this.converter = converter;
+		segmentStarts = split(index, firstFrame);
+		segments = new ArrayList<BlockingQueue<Object>>(segmentStarts.length - 1);
+		for (int i = 0; i + 1 < segmentStarts.length; i++) {
+			segments.add(new ArrayBlockingQueue<Object>(SEGMENT_CAPACITY));
+		}
+		segmentsInFlight = new Semaphore(2 * threadCount);
+		nextFrame = firstFrame;
+
+		for (int i = 0; i < threadCount; i++) {
+			final Thread worker = new Thread("scifio-javacv decoder " + i) {
+
+				@Override
+				public void run() {
+					decodeSegments();
+				}
+			};
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * @return the first frame of each segment, followed by the frame count
+	 */
+	private static int[] split(final MovieIndex index, final int firstFrame) {
+		final int frameCount = index.getFrameCount();
+		final List<Integer> starts = new ArrayList<Integer>();
+		starts.add(firstFrame);
+		for (int i = 0; i < index.getKeyFrameCount(); i++) {
+			final int keyFrame = index.getKeyFrame(i);
+			if (keyFrame - starts.get(starts.size() - 1) >= MIN_SEGMENT_LENGTH &&
+				frameCount - keyFrame >= MIN_SEGMENT_LENGTH)
+			{
+				starts.add(keyFrame);
+			}
+		}
+		starts.add(frameCount);
+		final int[] result = new int[starts.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = starts.get(i);
+		}
+		return result;
+	}
+
+	private void decodeSegments() {
+		MovieDecoder decoder = null;
+		try {
+			while (!stopped) {
+				segmentsInFlight.acquire();
+				final int segment = nextSegment.getAndIncrement();
+				if (segment >= segments.size()) {
+					segmentsInFlight.release();
+					return;
+				}
+				final BlockingQueue<Object> queue = segments.get(segment);
+				try {
+					if (decoder == null) decoder = MovieDecoder.open(path, index, mode);
+					final int end = segmentStarts[segment + 1];
+					decoder.seek(segmentStarts[segment]);
+					for (int frame = segmentStarts[segment]; frame < end && !stopped; frame++) {
+						queue.put(converter.convert(decoder.grab()));
+					}
+				} catch (FrameGrabber.Exception e) {
+					queue.put(new DecodingFailure(new IOException(e)));
+					return;
+				} catch (IOException e) {
+					queue.put(new DecodingFailure(e));
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} finally {
+			if (decoder != null) {
+				try {
+					decoder.close();
+				} catch (FrameGrabber.Exception e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	@Override
+	public int getNextFrame() {
+		return nextFrame;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T take() throws IOException {
+		if (currentSegment >= segments.size()) {
+			throw new IOException("No more frames after " + nextFrame);
+		}
+		final Object frame;
+		try {
+			frame = segments.get(currentSegment).take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for frame " +
+				nextFrame);
+		}
+		if (frame instanceof DecodingFailure) {
+			throw ((DecodingFailure) frame).getException();
+		}
+		nextFrame++;
+		if (nextFrame == segmentStarts[currentSegment + 1]) {
+			segments.set(currentSegment, null);
+			currentSegment++;
+			segmentsInFlight.release();
+		}
+		return (T) frame;
+	}
+
+	@Override
+	public void stop() {
+		stopped = true;
+		boolean interrupted = false;
+		for (final Thread worker : workers) {
+			worker.interrupt();
+			while (worker.isAlive()) {
+				try {
+					worker.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv.utests;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.scif.javacv.MovieFormat.Checker;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * Tests recognizing movie containers by their signature.
+ */
+public class CheckerTest {
+
+	@Test
+	public void containers() {
+		assertTrue(isMovie(header("RIFF\0\0\0\0AVI LIST")));
+		assertTrue(isMovie(header("\0\0\0 ftypisom")));
+		assertTrue(isMovie(header("\0\0\0\u0014ftypqt  ")));
+		assertTrue(isMovie(header("\0\0\0\u0008wide\0\0\0\u0010mdat")));
+		assertTrue(isMovie(header("\0\0\0\u0008free\0\0\0\u0010mdat")));
+		assertTrue(isMovie(header("\0\0\0\u0008skip\0\0\0\u0010moov")));
+		assertTrue(isMovie(header("\0\0\0\u0014pnot\0\0\0\0")));
+		assertTrue(isMovie(header("FLV\u0001\u0005")));
+		assertTrue(isMovie(header("OggS\0\u0002")));
+		assertTrue(isMovie(new byte[] { 0, 0, 1, (byte) 0xba, 0x44 }));
+		assertTrue(isMovie(transportStream(0, 188)));
+		assertTrue(isMovie(transportStream(4, 192)));
+	}
+
+	@Test
+	public void otherFiles() {
+		assertFalse(isMovie(header("RIFF\0\0\0\0WAVEfmt ")));
+		assertFalse(isMovie(header("\u0089PNG\r\n\u001a\n")));
+		assertFalse(isMovie(header("\0\0\0\u0018ftypheic")));
+		assertFalse(isMovie(header("\0\0\0\u001cftypavif")));
+		assertFalse(isMovie(header("\0\0\0 ftypM4A ")));
+		assertFalse(isMovie(new byte[] { 0x47, 0, 0, 0, 0 }));
+		final byte[] broken = transportStream(0, 188);
+		broken[376] = 0;
+		assertFalse(isMovie(broken));
+		assertFalse(isMovie(new byte[0]));
+	}
+
+	private static boolean isMovie(final byte[] header) {
+		return Checker.isMovieHeader(header, header.length);
+	}
+
+	private static byte[] header(final String signature) {
+		return signature.getBytes(Charset.forName("ISO-8859-1"));
+	}
+
+	private static byte[] transportStream(final int offset, final int packetSize) {
+		final byte[] header = new byte[Checker.HEADER_SIZE];
+		for (int i = offset; i < header.length; i += packetSize) {
+			header[i] = 0x47;
+		}
+		return header;
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv.utests;
+
+import static org.junit.Assert.assertEquals;
+import io.scif.javacv.ColorMode;
+
+import org.junit.Test;
+
+/**
+ * Tests choosing the pixel layout and precision to decode a movie with.
+ */
+public class ColorModeTest {
+
+	@Test
+	public void bitDepth() {
+		assertEquals(8, ColorMode.getBitDepth(8, 8, 8)); // yuv420p
+		assertEquals(10, ColorMode.getBitDepth(10, 10, 10)); // yuv420p10le
+		assertEquals(16, ColorMode.getBitDepth(16)); // gray16le
+		assertEquals(16, ColorMode.getBitDepth(16, 16, 16)); // rgb48le
+		assertEquals(8, ColorMode.getBitDepth(5, 6, 5)); // rgb565le
+		assertEquals(8, ColorMode.getBitDepth(5, 5, 5)); // rgb555le
+		assertEquals(8, ColorMode.getBitDepth(4, 4, 4)); // bgr444le
+		assertEquals(8, ColorMode.getBitDepth());
+	}
+
+	@Test
+	public void forBitDepth() {
+		assertEquals(ColorMode.RGB, ColorMode.RGB.forBitDepth(8));
+		assertEquals(ColorMode.RGB16, ColorMode.RGB.forBitDepth(10));
+		assertEquals(ColorMode.GRAY, ColorMode.GRAY16.forBitDepth(8));
+		assertEquals(ColorMode.YUV16, ColorMode.YUV.forBitDepth(16));
+	}
+
+	@Test
+	public void forSource() {
+		assertEquals(ColorMode.YUV, ColorMode.YUV.forSource("yuv420p"));
+		assertEquals(ColorMode.YUV, ColorMode.YUV.forSource("yuvj422p"));
+		assertEquals(ColorMode.YUV16, ColorMode.YUV16.forSource("yuv420p10le"));
+		assertEquals(ColorMode.YUV, ColorMode.YUV.forSource("nv12"));
+		assertEquals(ColorMode.YUV, ColorMode.YUV.forSource("uyvy422"));
+		assertEquals(ColorMode.YUV, ColorMode.YUV.forSource(null));
+		assertEquals(ColorMode.RGB, ColorMode.YUV.forSource("rgb24"));
+		assertEquals(ColorMode.RGB, ColorMode.YUV.forSource("gbrp"));
+		assertEquals(ColorMode.RGB, ColorMode.YUV16.forSource("pal8"));
+		assertEquals(ColorMode.GRAY, ColorMode.YUV.forSource("gray"));
+		assertEquals(ColorMode.GRAY16, ColorMode.YUV16.forSource("gray16le")
+			.forBitDepth(16));
+		assertEquals(ColorMode.RGB, ColorMode.RGB.forSource("yuv420p"));
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv.utests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import io.scif.javacv.FrameCache;
+
+import org.junit.Test;
+
+/**
+ * Tests the LRU cache of decoded frames.
+ */
+public class FrameCacheTest {
+
+	@Test
+	public void evictLeastRecentlyUsed() {
+		final FrameCache<String> cache = new FrameCache<String>(30);
+		cache.put(0, "zero", 10);
+		cache.put(1, "one", 10);
+		cache.put(2, "two", 10);
+		assertEquals("zero", cache.get(0));
+		cache.put(3, "three", 10);
+		assertNull(cache.get(1));
+		assertEquals("zero", cache.get(0));
+		assertEquals("two", cache.get(2));
+		assertEquals("three", cache.get(3));
+		assertEquals(30, cache.getSize());
+		assertEquals(4, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void budget() {
+		final FrameCache<String> cache = new FrameCache<String>(25);
+		cache.put(0, "too big", 26);
+		assertNull(cache.get(0));
+		cache.put(1, "one", 10);
+		cache.put(2, "two", 10);
+		cache.setMaxSize(15);
+		assertNull(cache.get(1));
+		assertEquals("two", cache.get(2));
+		assertEquals(1, cache.getFrameCount());
+		cache.setMaxSize(0);
+		assertEquals(0, cache.getSize());
+	}
+
+}
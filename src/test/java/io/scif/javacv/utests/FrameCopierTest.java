@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv.utests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import io.scif.javacv.FrameCopier;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Tests copying regions out of decoded frames.
+ */
+public class FrameCopierTest {
+
+	@Test
+	public void paddedStride() {
+		// 3x2 RGB pixels, each row padded to 12 bytes
+		final ByteBuffer source = frame(12, 2, 9);
+		final byte[] dest = new byte[18];
+		FrameCopier.copyRegion(source, 12, 3, 1, 0, 3, 0, 0, 3, 2, dest, 0);
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 17, 18, 19, 20,
+			21, 22, 23, 24, 25 }, dest);
+
+		// only the region is written, at the given offset
+		final byte[] region = new byte[8];
+		FrameCopier.copyRegion(source, 12, 3, 1, 0, 3, 1, 1, 2, 1, region, 1);
+		assertArrayEquals(new byte[] { 0, 20, 21, 22, 23, 24, 25, 0 }, region);
+	}
+
+	@Test
+	public void channelSubset() {
+		// 2x2 RGB pixels with 16-bit samples; copy the green and blue channels
+		final ByteBuffer source = frame(12, 2, 12);
+		final byte[] dest = new byte[16];
+		FrameCopier.copyRegion(source, 12, 3, 2, 1, 2, 0, 0, 2, 2, dest, 0);
+		assertArrayEquals(new byte[] { 3, 4, 5, 6, 9, 10, 11, 12, 19, 20, 21, 22,
+			25, 26, 27, 28 }, dest);
+	}
+
+	@Test
+	public void planar() {
+		// three 2x2 planes, each row padded to 4 bytes
+		final ByteBuffer source = frame(4, 6, 2);
+		final byte[] dest = new byte[4];
+		FrameCopier.copyPlanarRegion(source, 4, 2, 1, 1, 2, 1, 0, 1, 2, dest, 0);
+		// column 1 of the second and the third plane
+		assertArrayEquals(new byte[] { 34, 50, 66, 82 }, dest);
+	}
+
+	@Test
+	public void directBuffer() {
+		final ByteBuffer source = frame(12, 2, 9);
+		final ByteBuffer dest = ByteBuffer.allocateDirect(20);
+		dest.position(3);
+		FrameCopier.copyRegion(source, 12, 3, 1, 0, 3, 0, 0, 3, 2, dest, 1);
+		assertEquals(3, dest.position());
+		final byte[] bytes = new byte[20];
+		dest.position(0);
+		dest.get(bytes);
+		assertArrayEquals(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 17, 18, 19,
+			20, 21, 22, 23, 24, 25, 0 }, bytes);
+
+		// channel subsets are written sample by sample
+		final ByteBuffer green = ByteBuffer.allocateDirect(6);
+		FrameCopier.copyRegion(source, 12, 3, 1, 1, 1, 0, 0, 3, 2, green, 0);
+		assertEquals(0, green.position());
+		final byte[] greenBytes = new byte[6];
+		green.get(greenBytes);
+		assertArrayEquals(new byte[] { 2, 5, 8, 18, 21, 24 }, greenBytes);
+	}
+
+	/**
+	 * Makes a frame whose bytes encode their row and column, starting at 1;
+	 * the padding at the end of each row is -1.
+	 */
+	private static ByteBuffer frame(final int stride, final int rows,
+		final int rowLength)
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(stride * rows);
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < stride; column++) {
+				buffer.put((byte) (column < rowLength ? 16 * row + column + 1 : -1));
+			}
+		}
+		buffer.rewind();
+		return buffer;
+	}
+
+}
@@ -35,14 +35,31 @@
 
 package io.scif.javacv.utests;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import io.scif.FormatException;
+import io.scif.config.SCIFIOConfig;
 import io.scif.img.ImgIOException;
 import io.scif.img.ImgOpener;
 import io.scif.img.ImgSaver;
+import io.scif.javacv.ColorMode;
+import io.scif.javacv.MovieFormat;
+import io.scif.javacv.MovieIndexCache;
+import io.scif.services.FormatService;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
 import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
@@ -53,7 +70,10 @@ import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.view.Views;
 
 import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.scijava.Context;
 
 /**
@@ -63,34 +83,277 @@ import org.scijava.Context;
  */
 public class MovieIOTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	private File file;
 
+	@Before
+	public void setup() throws IOException {
+		// keep the metadata caches out of the user's home directory
+		System.setProperty(MovieIndexCache.CACHE_DIR_PROPERTY, folder.newFolder("cache").getPath());
+	}
+
 	@After
 	public void cleanup() {
+		System.clearProperty(MovieIndexCache.CACHE_DIR_PROPERTY);
 		if (file != null && file.exists()) {
 			assertTrue(file.delete());
 		}
 	}
 
+	private static final long WIDTH = 512, HEIGHT = 512, FRAME_COUNT = 30;
+
 	@Test
 	public void writeAndRead() throws IOException, ImgIOException, IncompatibleTypeException {
-		final long width = 512, height = 512, frameCount = 30;
-		final Img<UnsignedByteType> img = TestImgGenerator.makeGradientImage(width, height, frameCount);
+		final Context context = new Context();
+		writeMovie();
 
-		// for now, JavaCV writes .mpg files that are 2 frames too short
-		final IterableInterval<UnsignedByteType> cropped =
-				Views.iterable(Views.interval(img, new long[] { 0,  0, 0}, new long[] { width - 1, height - 1, frameCount - 3 }));
+		final ImgOpener opener = new ImgOpener(context);
+		final ImgPlus<UnsignedByteType> img2 = (ImgPlus<UnsignedByteType>) opener.openImg(file.getAbsolutePath());
+		// the frames are read back as RGB; the gradient is gray, so any channel will do
+		final IterableInterval<UnsignedByteType> gray =
+				Views.iterable(Views.hyperSlice(img2, img2.dimensionIndex(Axes.CHANNEL), 0));
+		assertTrue(TestImgStatistics.match(writtenFrames(), gray, 10));
+	}
+
+	@Test
+	public void readGray() throws IOException, ImgIOException, IncompatibleTypeException {
+		final Context context = new Context();
+		writeMovie();
 
+		final SCIFIOConfig config = new SCIFIOConfig();
+		config.put(MovieFormat.COLOR_MODE, ColorMode.GRAY.name());
+		final ImgOpener opener = new ImgOpener(context);
+		final ImgPlus<UnsignedByteType> gray =
+				(ImgPlus<UnsignedByteType>) opener.openImgs(file.getAbsolutePath(), config).get(0);
+		assertTrue(gray.dimensionIndex(Axes.CHANNEL) < 0);
+		assertTrue(TestImgStatistics.match(writtenFrames(), gray, 10));
+	}
+
+	@Test
+	public void exactFrameCount() throws IOException, FormatException, ImgIOException, IncompatibleTypeException {
 		final Context context = new Context();
+		writeMovie();
+
+		final MovieFormat.Reader reader = createReader(context);
+		reader.setExactFrameCount(true);
+		reader.setSource(file.getAbsolutePath());
+		assertEquals(FRAME_COUNT - 2, reader.getPlaneCount(0));
+		reader.close();
+	}
+
+	@Test
+	public void readBackwards() throws IOException, FormatException, ImgIOException, IncompatibleTypeException {
+		final Context context = new Context();
+		writeMovie();
+
+		final byte[][] sequential = readSequentially(context);
+
+		// seek for every plane, bypassing the frames cached above
+		final MovieFormat.Reader backwards = createReader(context);
+		backwards.setSource(file.getAbsolutePath());
+		for (int i = sequential.length - 1; i >= 0; i--) {
+			assertArrayEquals("plane " + i, sequential[i], backwards.openPlane(0, i).getBytes());
+		}
+		backwards.close();
+	}
+
+	@Test
+	public void prefetch() throws IOException, FormatException, ImgIOException, IncompatibleTypeException {
+		final Context context = new Context();
+		writeMovie();
+		final byte[][] sequential = readSequentially(context);
+
+		final MovieFormat.Reader reader = createReader(context);
+		reader.setPrefetchDepth(4);
+		reader.setSource(file.getAbsolutePath());
+		for (int i = 0; i < sequential.length; i++) {
+			assertArrayEquals("plane " + i, sequential[i], reader.openPlane(0, i).getBytes());
+		}
+		reader.close();
+	}
+
+	@Test
+	public void strided() throws IOException, FormatException, ImgIOException, IncompatibleTypeException {
+		final Context context = new Context();
+		writeMovie();
+		final byte[][] sequential = readSequentially(context);
+
+		final MovieFormat.Reader reader = createReader(context);
+		reader.setPrefetchDepth(2);
+		reader.setStride(3);
+		reader.setSource(file.getAbsolutePath());
+		for (int i = 0; i < sequential.length; i += 3) {
+			assertArrayEquals("plane " + i, sequential[i], reader.openPlane(0, i).getBytes());
+		}
+		reader.close();
+	}
+
+	@Test
+	public void parallel() throws IOException, FormatException, ImgIOException, IncompatibleTypeException {
+		final Context context = new Context();
+		writeMovie();
+		final byte[][] sequential = readSequentially(context);
+
+		final MovieFormat.Reader reader = createReader(context);
+		reader.setDecoderThreads(3);
+		reader.setFrameCacheSize(0);
+		reader.setSource(file.getAbsolutePath());
+		for (int i = 0; i < sequential.length; i++) {
+			assertArrayEquals("plane " + i, sequential[i], reader.openPlane(0, i).getBytes());
+		}
+		// restarting in the middle, since nothing is cached
+		assertArrayEquals(sequential[5], reader.openPlane(0, 5).getBytes());
+		reader.close();
+	}
+
+	@Test
+	public void multiThreaded() throws Exception {
+		final Context context = new Context();
+		writeMovie();
+		final byte[][] sequential = readSequentially(context);
+
+		final MovieFormat.Reader reader = createReader(context);
+		reader.setDecoderPoolSize(2);
+		reader.setFrameCacheSize(0);
+		reader.setSource(file.getAbsolutePath());
+		final int threads = 4;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < threads; t++) {
+				final int first = t;
+				futures.add(executor.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						for (int i = first; i < sequential.length; i += threads) {
+							assertArrayEquals("plane " + i, sequential[i], reader.openPlane(0, i).getBytes());
+						}
+						return null;
+					}
+				}));
+			}
+			for (final Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+			reader.close();
+		}
+	}
+
+	@Test
+	public void readAheadViaConfig() throws IOException, ImgIOException, IncompatibleTypeException {
+		final Context context = new Context();
+		writeMovie();
+
+		final ImgOpener opener = new ImgOpener(context);
+		final ImgPlus<UnsignedByteType> expected =
+				(ImgPlus<UnsignedByteType>) opener.openImgs(file.getAbsolutePath()).get(0);
+		for (final String key : new String[] { MovieFormat.PREFETCH_DEPTH, MovieFormat.DECODER_THREADS }) {
+			final SCIFIOConfig config = new SCIFIOConfig();
+			config.put(key, 3);
+			final ImgPlus<UnsignedByteType> actual =
+					(ImgPlus<UnsignedByteType>) opener.openImgs(file.getAbsolutePath(), config).get(0);
+			assertTrue(key, TestImgStatistics.match(expected, actual, 0));
+		}
+	}
+
+	@Test
+	public void readPlane() throws IOException, FormatException, ImgIOException, IncompatibleTypeException {
+		final Context context = new Context();
+		writeMovie();
+
+		final MovieFormat.Reader reader = createReader(context);
+		reader.setSource(file.getAbsolutePath());
+		final Interval bounds = new FinalInterval(reader.getMetadata().get(0).getAxesLengthsPlanar());
+		final byte[] expected = reader.openPlane(0, 3).getBytes();
+		reader.getFrameCache().clear();
+
+		final byte[] array = new byte[expected.length];
+		reader.readPlane(0, 3, array, bounds);
+		assertArrayEquals(expected, array);
+
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length + 1);
+		buffer.put((byte) 1);
+		reader.readPlane(0, 3, buffer, bounds);
+		assertEquals(buffer.capacity(), buffer.position());
+		final byte[] direct = new byte[expected.length];
+		buffer.position(1);
+		buffer.get(direct);
+		assertArrayEquals(expected, direct);
+		reader.close();
+	}
+
+	@Test
+	public void openPlaneAtTime() throws IOException, FormatException, ImgIOException, IncompatibleTypeException {
+		final Context context = new Context();
+		writeMovie();
+
+		final MovieFormat.Reader reader = createReader(context);
+		reader.setSource(file.getAbsolutePath());
+		for (int i = 0; i < reader.getPlaneCount(0); i++) {
+			final long timestamp = reader.getTimestamp(i);
+			assertEquals(i, reader.getPlaneIndex(timestamp));
+			assertArrayEquals("plane " + i, reader.openPlane(0, i).getBytes(),
+				reader.openPlaneAtTime(0, timestamp).getBytes());
+		}
+		reader.close();
+	}
+
+	@Test(expected = FormatException.class)
+	public void overviewWithoutMovie()throws IOException, FormatException {
+		createReader(new Context()).openOverview(0, 4);
+	}
+
+	@Test(expected = FormatException.class)
+	public void overviewNegativeCount() throws IOException, FormatException, ImgIOException, IncompatibleTypeException {
+		final Context context = new Context();
+		writeMovie();
+
+		final MovieFormat.Reader reader = createReader(context);
+		reader.setSource(file.getAbsolutePath());
+		try {
+			reader.openOverview(0, -1);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void writeMovie() throws IOException, ImgIOException, IncompatibleTypeException {
+		final Img<UnsignedByteType> img = TestImgGenerator.makeGradientImage(WIDTH, HEIGHT, FRAME_COUNT);
 		final ImgSaver saver = new ImgSaver();
 		final ImgPlus<UnsignedByteType> imgPlus =
 				new ImgPlus<UnsignedByteType>(img, "test", new AxisType[] { Axes.X, Axes.Y, Axes.CHANNEL, Axes.TIME });
 		file = File.createTempFile("write-and-read-test", ".mpg");
 		saver.saveImg(file.getAbsolutePath(), imgPlus);
+	}
 
-		final ImgOpener opener = new ImgOpener(context);
-		Img<UnsignedByteType> img2 = (Img<UnsignedByteType>) opener.openImg(file.getAbsolutePath());
-		assertTrue(TestImgStatistics.match(cropped, img2, 10));
+	private static IterableInterval<UnsignedByteType> writtenFrames() {
+		final Img<UnsignedByteType> img = TestImgGenerator.makeGradientImage(WIDTH, HEIGHT, FRAME_COUNT);
+		// for now, JavaCV writes .mpg files that are 2 frames too short
+		return Views.iterable(Views.interval(img, new long[] { 0,  0, 0}, new long[] { WIDTH - 1, HEIGHT - 1, FRAME_COUNT - 3 }));
+	}
+
+	/**
+	 * @return all planes of the movie, read one after the other
+	 */
+	private byte[][] readSequentially(final Context context) throws IOException, FormatException {
+		final MovieFormat.Reader reader = createReader(context);
+		reader.setSource(file.getAbsolutePath());
+		final byte[][] planes = new byte[(int) reader.getPlaneCount(0)][];
+		for (int i = 0; i < planes.length; i++) {
+			planes[i] = reader.openPlane(0, i).getBytes();
+		}
+		reader.close();
+		return planes;
+	}
+
+	private static MovieFormat.Reader createReader(final Context context) throws FormatException {
+		final MovieFormat format = context.getService(FormatService.class).getFormatFromClass(MovieFormat.class);
+		return (MovieFormat.Reader) format.createReader();
 	}
 
 }
@@ -0,0 +1,181 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv.utests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.scif.FormatException;
+import io.scif.img.ImgIOException;
+import io.scif.img.ImgOpener;
+import io.scif.img.ImgSaver;
+import io.scif.javacv.MovieFormat;
+import io.scif.javacv.MovieImgLoader;
+import io.scif.javacv.MovieIndexCache;
+import io.scif.services.FormatService;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.view.Views;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.Context;
+
+/**
+ * Tests opening movies as images, eagerly or lazily.
+ */
+public class MovieImgLoaderTest {
+
+	private static final long WIDTH = 256, HEIGHT = 256, FRAME_COUNT = 30;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Context context;
+	private String path;
+
+	@Before
+	public void setup() throws IOException, ImgIOException, IncompatibleTypeException {
+		// keep the metadata caches out of the user's home directory
+		System.setProperty(MovieIndexCache.CACHE_DIR_PROPERTY, folder.newFolder("cache").getPath());
+		context = new Context();
+		final Img<UnsignedByteType> img = TestImgGenerator.makeGradientImage(WIDTH, HEIGHT, FRAME_COUNT);
+		final ImgPlus<UnsignedByteType> imgPlus =
+				new ImgPlus<UnsignedByteType>(img, "test", new AxisType[] { Axes.X, Axes.Y, Axes.CHANNEL, Axes.TIME });
+		path = new File(folder.getRoot(), "movie.mpg").getAbsolutePath();
+		new ImgSaver().saveImg(path, imgPlus);
+	}
+
+	@After
+	public void cleanup() {
+		System.clearProperty(MovieIndexCache.CACHE_DIR_PROPERTY);
+		context.dispose();
+	}
+
+	@Test
+	public void estimateSize() throws IOException, FormatException {
+		final MovieFormat.Reader reader = createReader();
+		final long frameCount = reader.getIndex().getFrameCount();
+		assertEquals(WIDTH * HEIGHT * 3 * frameCount, MovieImgLoader.estimateSize(reader, 0));
+		reader.close();
+	}
+
+	@Test
+	public void openEagerly() throws IOException, FormatException, ImgIOException {
+		final MovieImgLoader.MovieImg movie = MovieImgLoader.open(context, path, 1);
+		try {
+			assertFalse(movie.isLazy());
+			assertTrue(match(openWithImgOpener(), movie.getImg()));
+		} finally {
+			movie.close();
+		}
+	}
+
+	@Test
+	public void openLazily() throws IOException, FormatException, ImgIOException {
+		final MovieImgLoader.MovieImg movie = MovieImgLoader.open(context, path, 1e-6);
+		try {
+			assertTrue(movie.isLazy());
+			assertTrue(movie.getReader().readsAhead(0));
+			assertTrue(match(openWithImgOpener(), movie.getImg()));
+		} finally {
+			movie.close();
+		}
+	}
+
+	@Test
+	public void openLazyWithoutReadAhead() throws IOException, FormatException, ImgIOException {
+		final MovieFormat.Reader reader = createReader();
+		try {
+			assertFalse(reader.readsAhead(0));
+			// a tiny budget keeps only one cell at a time
+			final ImgPlus<UnsignedByteType> lazy = MovieImgLoader.openLazy(reader, 0, 1);
+			assertEquals(reader.getIndex().getFrameCount(), lazy.dimension(lazy.dimensionIndex(Axes.TIME)));
+			assertTrue(match(openWithImgOpener(), lazy));
+		} finally {
+			reader.close();
+		}
+	}
+
+	private MovieFormat.Reader createReader() throws IOException, FormatException {
+		final MovieFormat format = context.getService(FormatService.class).getFormatFromClass(MovieFormat.class);
+		final MovieFormat.Reader reader = (MovieFormat.Reader) format.createReader();
+		reader.setSource(path);
+		return reader;
+	}
+
+	private ImgPlus<?> openWithImgOpener() throws ImgIOException {
+		return new ImgOpener(context).openImgs(path).get(0);
+	}
+
+	/**
+	 * Compares the first channel of the frames two images have in common; the
+	 * lazily opened ones put the interleaved channels first, and take their
+	 * frame count from the index rather than the container.
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean match(final ImgPlus<?> expected, final ImgPlus<?> actual) {
+		final ImgPlus<UnsignedByteType> a = (ImgPlus<UnsignedByteType>) expected;
+		final ImgPlus<UnsignedByteType> b = (ImgPlus<UnsignedByteType>) actual;
+		final long frames = Math.min(a.dimension(a.dimensionIndex(Axes.TIME)), b.dimension(b.dimensionIndex(Axes.TIME)));
+		return TestImgStatistics.match(firstChannel(a, frames), firstChannel(b, frames), 0);
+	}
+
+	private static IterableInterval<UnsignedByteType> firstChannel(final ImgPlus<UnsignedByteType> img, final long frames) {
+		final int channel = img.dimensionIndex(Axes.CHANNEL);
+		final int time = img.dimensionIndex(Axes.TIME) - (channel < img.dimensionIndex(Axes.TIME) ? 1 : 0);
+		final RandomAccessibleInterval<UnsignedByteType> slice = Views.hyperSlice(img, channel, 0);
+		final long[] min = new long[slice.numDimensions()], max = new long[slice.numDimensions()];
+		slice.min(min);
+		slice.max(max);
+		max[time] = min[time] + frames - 1;
+		return Views.iterable(Views.interval(slice, min, max));
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv.utests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.scif.javacv.MovieIndex;
+import io.scif.javacv.MovieIndexCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the on-disk cache of movie indexes.
+ */
+public class MovieIndexCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void storeAndLoad() throws IOException {
+		final File movie = makeFile("movie.avi", 1000);
+		final MovieIndexCache cache = new MovieIndexCache(folder.newFolder("cache"));
+		assertNull(cache.load(movie.getPath()));
+
+		final MovieIndex index = new MovieIndex(new long[] { 0, 40000, 80000, 120000, 160000 }, new int[] { 0, 3 });
+		cache.store(movie.getPath(), index);
+		final MovieIndex loaded = cache.load(movie.getPath());
+		assertNotNull(loaded);
+		assertEquals(5, loaded.getFrameCount());
+		assertEquals(120000, loaded.getTimestamp(3));
+		assertEquals(2, loaded.getKeyFrameCount());
+		assertTrue(loaded.isKeyFrame(3));
+		assertFalse(loaded.isKeyFrame(4));
+		assertEquals(0, loaded.getKeyFrameBefore(2));
+		assertEquals(3, loaded.getKeyFrameBefore(4));
+	}
+
+	@Test
+	public void storeAndLoadPacketSizes() throws IOException {
+		final File movie = makeFile("movie.mov", 1000);
+		final MovieIndexCache cache = new MovieIndexCache(folder.newFolder("cache"));
+		final MovieIndex index = new MovieIndex(new long[] { 0, 40000, 80000 }, new int[] { 0 }, new int[] { 5000, 300, 200 });
+		cache.store(movie.getPath(), index);
+		final MovieIndex loaded = cache.load(movie.getPath());
+		assertNotNull(loaded);
+		assertTrue(loaded.hasPacketSizes());
+		assertEquals(5000, loaded.getPacketSize(0));
+		assertEquals(200, loaded.getPacketSize(2));
+		assertEquals(1, loaded.getKeyFrameCount());
+	}
+
+	@Test
+	public void invalidateModified() throws IOException {
+		final File movie = makeFile("movie.mp4", 1000);
+		final MovieIndexCache cache = new MovieIndexCache(folder.newFolder("cache"));
+		cache.store(movie.getPath(), MovieIndex.fromFrameRate(10, 25));
+		assertNotNull(cache.load(movie.getPath()));
+
+		assertTrue(movie.setLastModified(movie.lastModified() - 60000));
+		assertNull(cache.load(movie.getPath()));
+	}
+
+	@Test
+	public void discardCorrupt() throws IOException {
+		final File movie = makeFile("movie.avi", 1000);
+		final File directory = folder.newFolder("cache");
+		final MovieIndexCache cache = new MovieIndexCache(directory);
+		cache.store(movie.getPath(), MovieIndex.fromFrameRate(10, 25));
+		final File entry = directory.listFiles()[0];
+
+		// a huge frame count must not be allocated
+		final byte[] bytes = Files.readAllBytes(entry.toPath());
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		buffer.putInt(28 + buffer.getInt(24), Integer.MAX_VALUE);
+		Files.write(entry.toPath(), bytes);
+		assertNull(cache.load(movie.getPath()));
+		assertFalse(entry.exists());
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed() throws IOException {
+		final File directory = folder.newFolder("cache");
+		final File stale = new File(directory, "stale.idx");
+		assertTrue(stale.createNewFile());
+		assertTrue(stale.setLastModified(System.currentTimeMillis() - 40L * 24 * 60 * 60 * 1000));
+		final MovieIndexCache cache = new MovieIndexCache(directory);
+		final File a = makeFile("a.avi", 1000), b = makeFile("b.avi", 1000), c = makeFile("c.avi", 1000);
+
+		// the first store also deletes entries unused for a month
+		cache.store(a.getPath(), MovieIndex.fromFrameRate(100, 25));
+		assertFalse(stale.exists());
+		final File entry = directory.listFiles()[0];
+		final String previous = System.setProperty(MovieIndexCache.CACHE_SIZE_PROPERTY, "" + 2 * entry.length());
+		try {
+			cache.store(b.getPath(), MovieIndex.fromFrameRate(100, 25));
+			assertEquals(2, directory.listFiles().length);
+			assertTrue(entry.setLastModified(System.currentTimeMillis() - 2000));
+			cache.store(c.getPath(), MovieIndex.fromFrameRate(100, 25));
+			assertNull(cache.load(a.getPath()));
+			assertNotNull(cache.load(b.getPath()));
+			assertNotNull(cache.load(c.getPath()));
+		} finally {
+			if (previous == null) System.clearProperty(MovieIndexCache.CACHE_SIZE_PROPERTY);
+			else System.setProperty(MovieIndexCache.CACHE_SIZE_PROPERTY, previous);
+		}
+	}
+
+	private File makeFile(final String name, final int size) throws IOException {
+		final File file = folder.newFile(name);
+		final FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[size]);
+		out.close();
+		return file;
+	}
+
+}
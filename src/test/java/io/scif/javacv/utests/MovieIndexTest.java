@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv.utests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import io.scif.javacv.MovieIndex;
+
+import org.junit.Test;
+
+/**
+ * Tests looking up frames in a movie's index.
+ */
+public class MovieIndexTest {
+
+	private final MovieIndex index = new MovieIndex(new long[] { 0, 40000,
+		80000, 120000, 160000, 200000 }, new int[] { 0, 2, 4 });
+
+	@Test
+	public void frameAt() {
+		assertEquals(0, index.getFrameAt(0));
+		assertEquals(1, index.getFrameAt(40000));
+		assertEquals(2, index.getFrameAt(100000));
+		assertEquals(4, index.getFrameAt(160000));
+		assertEquals(5, index.getFrameAt(10000000));
+	}
+
+	@Test
+	public void keyFrames() {
+		assertArrayEquals(new int[] { 0, 2, 4 }, index.getKeyFrames(3));
+		assertArrayEquals(new int[] { 0, 2, 4 }, index.getKeyFrames(10));
+		assertArrayEquals(new int[] { 2 }, index.getKeyFrames(1));
+		assertArrayEquals(new int[0], index.getKeyFrames(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeKeyFrameCount() {
+		index.getKeyFrames(-1);
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * SCIFIO format for reading and converting movie file formats.
+ * %%
+ * Copyright (C) 2013 Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package io.scif.javacv.utests;
+
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_8U;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import io.scif.javacv.MovieIndexCache;
+import io.scif.javacv.NativeLibraries;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the persistent cache of native libraries.
+ *
+ * The cache switches off JavaCPP's own loading for the whole process, so each
+ * run happens in a fresh JVM; see {@link #main(String[])}.
+ */
+public class NativeLibraryCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void coldAndWarm() throws IOException, InterruptedException {
+		final File cache = folder.newFolder("cache");
+		final File movie = new File(folder.getRoot(), "cached.avi");
+
+		assertEquals(0, run(cache, movie));
+		final File[] directories = new File(cache, "natives").listFiles();
+		assertNotNull(directories);
+		assertEquals(1, directories.length);
+		assertTrue(new File(directories[0], "MANIFEST").isFile());
+
+		assertTrue(movie.delete());
+		assertEquals(0, run(cache, movie));
+	}
+
+	private static int run(final File cache, final File movie)
+		throws IOException, InterruptedException
+	{
+		final String java = System.getProperty("java.home") + File.separator +
+			"bin" + File.separator + "java";
+		final ProcessBuilder builder = new ProcessBuilder(java, "-cp", System
+			.getProperty("java.class.path"), "-D" + NativeLibraries.CACHE_PROPERTY +
+			"=true", "-D" + MovieIndexCache.CACHE_DIR_PROPERTY + "=" + cache,
+			NativeLibraryCacheTest.class.getName(), movie.getPath());
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+		return builder.start().waitFor();
+	}
+
+	/**
+	 * Loads the libraries through the cache, then records and grabs a movie,
+	 * which touches every library JavaCV's grabber and recorder load.
+	 *
+	 * @param args the path of the movie to write
+	 */
+	public static void main(final String[] args) throws Exception {
+		NativeLibraries.ensureLoaded();
+		if (!"false".equals(System.getProperty("org.bytedeco.javacpp.loadlibraries"))) {
+			System.err.println("The native library cache was not used");
+			System.exit(2);
+		}
+
+		final FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(args[0], 64, 64);
+		recorder.start();
+		for (int i = 0; i < 5; i++) {
+			recorder.record(IplImage.create(64, 64, IPL_DEPTH_8U, 3));
+		}
+		recorder.stop();
+		recorder.release();
+
+		final FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(args[0]);
+		grabber.start();
+		final boolean grabbed = grabber.grab() != null;
+		grabber.stop();
+		grabber.release();
+		System.exit(grabbed ? 0 : 3);
+	}
+
+}